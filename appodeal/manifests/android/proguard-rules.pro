@@ -1,26 +1,54 @@
+# Bridge reflection targets, generated from the ReflectionTargets constants
+# BEGIN reflection targets (generated by tools/gen_proguard_rules.py, do not edit)
+-keep class com.defold.appodeal.AppodealBridge { public static <methods>; native <methods>; }
+-keepclassmembers class com.appodeal.ads.Appodeal { public static *** initialize(...); public static *** cache(...); public static *** setAutoCache(...); public static *** setLogLevel(...); public static *** destroy(...); public static *** getVersion(); public static *** set*Consent*(...); public static *** set*Lgpd*(...); public static *** set*LGPD*(...); }
+-keep enum com.appodeal.ads.LogLevel { public static **[] values(); public static ** valueOf(java.lang.String); <fields>; }
+-keep class com.appodeal.consent.ConsentManager { public static *** INSTANCE; public *** status; public *** requestConsentInfoUpdate(...); public *** loadAndShowConsentFormIfRequired(...); public *** load(...); public *** loadConsentForm(...); public *** canShowAds(); public *** getStatus(); *** setConsentInformation$consent_release(...); *** setConsentInformation*(...); public *** set*Consent*(...); }
+-keep enum com.appodeal.consent.ConsentStatus { public static **[] values(); public static ** valueOf(java.lang.String); <fields>; }
+-keep class com.appodeal.consent.ConsentUpdateRequestParameters { public <init>(...); }
+-keep interface com.appodeal.consent.ConsentInfoUpdateCallback { <methods>; }
+-keep class com.appodeal.consent.ConsentInformation { <init>(...); }
+-keep class * extends com.appodeal.consent.ConsentInformation { <init>(...); }
+-keep interface com.appodeal.consent.** { <methods>; }
+-keepclassmembers class com.appodeal.consent.** { public *** show(android.app.Activity, ***); }
+-keep interface com.appodeal.ads.initializing.** { <methods>; }
+-keepclassmembers class com.dynamo.android.DefoldActivity { static *** getActivity(); }
+-keepclassmembers class com.defold.android.DefoldActivity { static *** getActivity(); }
+-keepnames class com.appodeal.ads.adapters.**
+-keepnames class com.appodeal.ads.unified.**
+# END reflection targets
+
 # Appodeal core
--keep class com.defold.appodeal.AppodealBridge { *; }
--keep class com.appodeal.ads.** { *; }
 -keep class com.explorestack.iab.** { *; }
 -dontwarn com.appodeal.ads.**
 -dontwarn com.explorestack.iab.**
 
 # Appodeal consent
--keep class com.appodeal.consent.** { *; }
 -dontwarn com.appodeal.consent.**
 
-# Appodeal mediation adapters
+# Appodeal mediation adapters (discovered by the SDK through reflection)
 -keep class com.appodeal.ads.adapters.** { *; }
 -keep class com.appodeal.ads.unified.** { *; }
 -dontwarn com.appodeal.ads.adapters.**
 -dontwarn com.appodeal.ads.unified.**
 
-# BidMachine
+# Third-party ad SDKs, defined in tools/adapter_presets.json
+# BEGIN mediation adapters (generated by tools/gen_adapter_presets.py, do not edit)
+# Adapter presets drop some of these jars, so every network is listed and
+# the rules only keep or silence classes that may be absent.
 -keep class io.bidmachine.** { *; }
 -dontwarn io.bidmachine.**
-
-# Third-party ad SDKs (minimal keep rules)
 -dontwarn com.applovin.**
+-dontwarn com.ironsource.**
+-dontwarn com.unity3d.mediation.**
+-dontwarn com.mbridge.msdk.**
 -dontwarn com.unity3d.ads.**
+-dontwarn com.unity3d.services.**
 -dontwarn com.vungle.**
+-dontwarn com.fyber.**
+-dontwarn com.amazon.device.ads.**
+-dontwarn sg.bigo.ads.**
+-dontwarn com.inmobi.**
+-dontwarn com.my.target.**
 -dontwarn com.yandex.mobile.ads.**
+# END mediation adapters
@@ -1,28 +1,59 @@
 #define DLIB_LOG_DOMAIN "Appodeal"
+#include <dmsdk/dlib/configfile.h>
 #include <dmsdk/dlib/log.h>
+#include <dmsdk/dlib/time.h>
 #include <dmsdk/extension/extension.h>
 #include <dmsdk/graphics/graphics.h>
 #include <dmsdk/script/script.h>
 
-#include <queue>
+#include <atomic>
+#include <deque>
 #include <string>
 #include <mutex>
 #include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <vector>
 
 #if defined(DM_PLATFORM_ANDROID)
+#include <android/trace.h>
 #include <dmsdk/graphics/graphics_native.h>
 #include <jni.h>
 #endif
 
 namespace
 {
+    // Systrace/Perfetto section matching the Java bridge's "Appodeal:" sections.
+    struct TraceScope
+    {
+        explicit TraceScope(const char* name)
+        {
+#if defined(DM_PLATFORM_ANDROID)
+            ATrace_beginSection(name);
+#else
+            (void)name;
+#endif
+        }
+
+        ~TraceScope()
+        {
+#if defined(DM_PLATFORM_ANDROID)
+            ATrace_endSection();
+#endif
+        }
+    };
+
     const char* LUA_MODULE_NAME = "appodeal";
+    const double DEFAULT_DISPATCH_BUDGET_MS = 2.0;
 
     enum EventChannel
     {
         EVENT_INIT = 0,
         EVENT_INTERSTITIAL,
         EVENT_REWARDED,
+        EVENT_CHANNEL_COUNT,
     };
 
     struct CallbackEvent
@@ -35,14 +66,47 @@ namespace
         double m_Amount;
         std::string m_Currency;
         uint32_t m_RetryCount = 0;
+        // Show session id from the Java bridge; 0 outside a show_* call.
+        uint32_t m_Session = 0;
+        // Boot-clock time the event was raised (SystemClock.elapsedRealtimeNanos on Android).
+        uint64_t m_SourceNanos = 0;
     };
 
-    struct PendingRewardResult
+    // Event names a listener can filter on; the index is the event's mask bit.
+    const char* LISTENER_EVENT_NAMES[] = {
+        "initialized", "init_failed", "loaded", "failed_to_load", "shown", "show_failed",
+        "clicked", "closed", "expired", "reward", "load_timeout", "show_timeout",
+    };
+    const uint32_t LISTENER_EVENT_COUNT = sizeof(LISTENER_EVENT_NAMES) / sizeof(LISTENER_EVENT_NAMES[0]);
+    // Names outside the list only reach listeners that did not filter by event.
+    const uint32_t LISTENER_OTHER_EVENT_BIT = 1u << 31;
+    const uint32_t LISTENER_MASK_ALL = 0xFFFFFFFFu;
+
+    // set_event_filter() bits, mirrored by EventFilter.java.
+    const uint32_t FILTER_EVENT_LOADED = 1u << 0;
+    const uint32_t FILTER_EVENT_FAILED_TO_LOAD = 1u << 1;
+    const uint32_t FILTER_EVENT_SHOWN = 1u << 2;
+    const uint32_t FILTER_EVENT_CLICKED = 1u << 3;
+    const uint32_t FILTER_EVENT_ALL = FILTER_EVENT_LOADED | FILTER_EVENT_FAILED_TO_LOAD | FILTER_EVENT_SHOWN | FILTER_EVENT_CLICKED;
+
+    // get_state() flags pushed by BridgeState.java, which defines the same values.
+    const uint32_t STATE_INIT_PENDING = 1u << 0;
+    const uint32_t STATE_INIT_DONE = 1u << 1;
+    const uint32_t STATE_INIT_FAILED = 1u << 2;
+    const uint32_t STATE_INTERSTITIAL_READY = 1u << 3;
+    const uint32_t STATE_REWARDED_READY = 1u << 4;
+    const uint32_t STATE_INTERSTITIAL_SHOWING = 1u << 5;
+    const uint32_t STATE_REWARDED_SHOWING = 1u << 6;
+    const uint32_t STATE_CAN_SHOW_ADS = 1u << 7;
+
+    struct EventListener
     {
-        bool m_HasResult;
-        bool m_Success;
-        double m_Amount;
-        std::string m_Currency;
+        uint32_t m_Id;
+        uint32_t m_ChannelMask;
+        uint32_t m_EventMask;
+        dmScript::LuaCallbackInfo* m_Callback;
+        // Set by unsubscribe() during fan-out; the callback is destroyed in CompactListeners.
+        bool m_Removed;
     };
 
     struct AppodealContext
@@ -50,11 +114,38 @@ namespace
         dmScript::LuaCallbackInfo* m_InitCallback;
         dmScript::LuaCallbackInfo* m_InterstitialCallback;
         dmScript::LuaCallbackInfo* m_RewardedCallback;
-        std::queue<CallbackEvent> m_Events;
+        std::deque<CallbackEvent> m_Events;
         std::mutex m_EventsMutex;
-
-        PendingRewardResult m_PendingReward;
-        std::mutex m_PendingRewardMutex;
+        // Set by set_event_mode("poll"): events wait for poll_events() and callbacks are unused.
+        bool m_PollEvents;
+
+        // subscribe() listeners, called for every matching event after the show_* callback.
+        std::vector<EventListener> m_Listeners;
+        uint32_t m_NextListenerId;
+        // While set, unsubscribe() only marks the entry; its callback, which
+        // may be the one running, is destroyed and erased after fan-out.
+        bool m_FanningOut;
+
+        // Per-frame FlushEvents budget; 0 disables a limit.
+        double m_DispatchBudgetMs;
+        uint32_t m_DispatchMaxEvents;
+        uint64_t m_DispatchCarriedOver;
+        uint64_t m_DispatchOverBudgetFrames;
+        double m_DispatchMaxFrameMs;
+        // Longest source-to-Lua delay seen, covering JNI, queue and flush.
+        double m_DispatchMaxLatencyMs;
+
+        // game.project appodeal.adapters: "minimal", "standard", "full" or empty.
+        // Optional; the bridge detects the preset and only cross-checks this one.
+        std::string m_AdapterPreset;
+
+        // Last snapshot pushed by the Java bridge; get_state() reads it without JNI.
+        std::mutex m_StateMutex;
+        // Java builds snapshots on several threads; an older one arriving late is ignored.
+        uint64_t m_StateVersion;
+        uint32_t m_StateFlags;
+        uint32_t m_StatePendingRewards;
+        std::string m_StateConsent;
 
 #if defined(DM_PLATFORM_ANDROID)
         struct Jni
@@ -66,7 +157,23 @@ namespace
             jmethodID m_ShowInterstitial;
             jmethodID m_IsRewardedAvailable;
             jmethodID m_ShowRewarded;
+            jmethodID m_ShowInterstitialWhenReady;
+            jmethodID m_ShowRewardedWhenReady;
             jmethodID m_ShowConsentForm;
+            jmethodID m_PreloadConsentForm;
+            jmethodID m_SetMainThreadBudgetMs;
+            jmethodID m_SetShowTimeoutMs;
+            jmethodID m_GetBridgeStats;
+            jmethodID m_HintUpcoming;
+            jmethodID m_NotifyGameReady;
+            jmethodID m_SetEventMask;
+            jmethodID m_DrainRewards;
+            jmethodID m_AcknowledgeRewards;
+            // Set once the class, every method ID and the native methods are in place.
+            bool m_Ready;
+            bool m_NativesRegistered;
+            // False once the app finalized; native handlers then drop what Java sends.
+            std::atomic<bool> m_Attached;
         } m_Jni;
 #endif
     };
@@ -82,55 +189,115 @@ namespace
         }
     }
 
+    // Replaces a callback slot with the function at index. In poll mode the
+    // slot stays empty, since events are delivered by poll_events().
+    static bool StoreCallback(lua_State* L, int index, dmScript::LuaCallbackInfo** slot)
+    {
+        DestroyCallback(slot);
+        if (g_Appodeal.m_PollEvents)
+            return true;
+
+        *slot = dmScript::CreateCallback(L, index);
+        return *slot != 0x0;
+    }
+
+    // Same clock as SystemClock.elapsedRealtimeNanos(), so Java and native
+    // stamps compare directly and time spent suspended is included.
+    static uint64_t BootTimeNanos()
+    {
+#if defined(DM_PLATFORM_ANDROID)
+        struct timespec ts;
+        if (clock_gettime(CLOCK_BOOTTIME, &ts) == 0)
+            return (uint64_t) ts.tv_sec * 1000000000ull + (uint64_t) ts.tv_nsec;
+#endif
+        return dmTime::GetMonotonicTime() * 1000ull;
+    }
+
     static void EnqueueEvent(const CallbackEvent& event)
     {
         std::lock_guard<std::mutex> lock(g_Appodeal.m_EventsMutex);
-        g_Appodeal.m_Events.push(event);
+#if defined(DM_PLATFORM_ANDROID)
+        // Checked under the lock so nothing lands after DetachNatives cleared the queue.
+        if (!g_Appodeal.m_Jni.m_Attached.load())
+            return;
+#endif
+        g_Appodeal.m_Events.push_back(event);
+        // Events raised natively are stamped here; Java events carry their own stamp.
+        if (g_Appodeal.m_Events.back().m_SourceNanos == 0)
+            g_Appodeal.m_Events.back().m_SourceNanos = BootTimeNanos();
     }
 
-    static void PushEventTable(lua_State* L, const CallbackEvent& event)
+    static void SetOptionalString(lua_State* L, const char* key, const char* value)
     {
-        lua_newtable(L);
+        if (value != 0x0)
+            lua_pushstring(L, value);
+        else
+            lua_pushnil(L);
+        lua_setfield(L, -2, key);
+    }
 
+    // Writes every event field into the table on top of the stack. Fields an
+    // event does not carry are set to nil so a reused poll_events() table
+    // holds nothing from its previous event.
+    static void FillEventTable(lua_State* L, const CallbackEvent& event)
+    {
         lua_pushboolean(L, event.m_Success ? 1 : 0);
         lua_setfield(L, -2, "success");
 
         lua_pushstring(L, event.m_Event.c_str());
         lua_setfield(L, -2, "event");
 
-        if (!event.m_Error.empty())
-        {
-            lua_pushstring(L, event.m_Error.c_str());
-            lua_setfield(L, -2, "error");
-        }
+        SetOptionalString(L, "error", event.m_Error.empty() ? 0x0 : event.m_Error.c_str());
 
+        const char* ad_type = 0x0;
         if (event.m_Channel == EVENT_INTERSTITIAL)
-        {
-            lua_pushstring(L, "interstitial");
-            lua_setfield(L, -2, "ad_type");
-        }
+            ad_type = "interstitial";
         else if (event.m_Channel == EVENT_REWARDED)
-        {
-            lua_pushstring(L, "rewarded");
-            lua_setfield(L, -2, "ad_type");
+            ad_type = "rewarded";
+        SetOptionalString(L, "ad_type", ad_type);
 
+        bool rewarded_channel = event.m_Channel == EVENT_REWARDED;
+        if (rewarded_channel)
             lua_pushboolean(L, event.m_Rewarded ? 1 : 0);
-            lua_setfield(L, -2, "rewarded");
+        else
+            lua_pushnil(L);
+        lua_setfield(L, -2, "rewarded");
 
-            if (event.m_Amount > 0.0)
-            {
-                lua_pushnumber(L, event.m_Amount);
-                lua_setfield(L, -2, "amount");
-            }
+        if (rewarded_channel && event.m_Amount > 0.0)
+            lua_pushnumber(L, event.m_Amount);
+        else
+            lua_pushnil(L);
+        lua_setfield(L, -2, "amount");
 
-            if (!event.m_Currency.empty())
-            {
-                lua_pushstring(L, event.m_Currency.c_str());
-                lua_setfield(L, -2, "currency");
-            }
+        SetOptionalString(L, "currency", rewarded_channel && !event.m_Currency.empty() ? event.m_Currency.c_str() : 0x0);
+
+        if (event.m_Session != 0)
+            lua_pushinteger(L, event.m_Session);
+        else
+            lua_pushnil(L);
+        lua_setfield(L, -2, "session");
+
+        // Seconds on the boot clock; t_dispatch - t_source is the pipeline delay.
+        uint64_t now = BootTimeNanos();
+        lua_pushnumber(L, event.m_SourceNanos / 1e9);
+        lua_setfield(L, -2, "t_source");
+        lua_pushnumber(L, now / 1e9);
+        lua_setfield(L, -2, "t_dispatch");
+
+        if (now > event.m_SourceNanos)
+        {
+            double latency_ms = (now - event.m_SourceNanos) / 1e6;
+            if (latency_ms > g_Appodeal.m_DispatchMaxLatencyMs)
+                g_Appodeal.m_DispatchMaxLatencyMs = latency_ms;
         }
     }
 
+    static void PushEventTable(lua_State* L, const CallbackEvent& event)
+    {
+        lua_newtable(L);
+        FillEventTable(L, event);
+    }
+
     static bool InvokeCallback(dmScript::LuaCallbackInfo* callback, const CallbackEvent& event)
     {
         if (callback == 0x0)
@@ -156,16 +323,143 @@ namespace
 
     static bool IsInterstitialTerminal(const std::string& event)
     {
-        return event == "show_failed" || event == "closed" || event == "expired";
+        return event == "show_failed" || event == "closed" || event == "expired" || event == "load_timeout"
+            || event == "show_timeout";
     }
 
     static bool IsRewardedTerminal(const std::string& event)
     {
-        return event == "show_failed" || event == "closed" || event == "expired";
+        return event == "show_failed" || event == "closed" || event == "expired" || event == "load_timeout"
+            || event == "show_timeout";
+    }
+
+    static uint32_t EventBit(const std::string& name)
+    {
+        for (uint32_t i = 0; i < LISTENER_EVENT_COUNT; ++i)
+        {
+            if (name == LISTENER_EVENT_NAMES[i])
+                return 1u << i;
+        }
+        return LISTENER_OTHER_EVENT_BIT;
+    }
+
+    static uint32_t FilterEventBit(const char* name)
+    {
+        if (strcmp(name, "loaded") == 0)
+            return FILTER_EVENT_LOADED;
+        if (strcmp(name, "failed_to_load") == 0)
+            return FILTER_EVENT_FAILED_TO_LOAD;
+        if (strcmp(name, "shown") == 0)
+            return FILTER_EVENT_SHOWN;
+        if (strcmp(name, "clicked") == 0)
+            return FILTER_EVENT_CLICKED;
+        return 0;
+    }
+
+    // Init results, terminal events and rewards cannot be filtered out.
+    static bool IsAlwaysDeliveredEvent(const char* name)
+    {
+        return strcmp(name, "initialized") == 0 || strcmp(name, "init_failed") == 0
+            || strcmp(name, "reward") == 0 || IsInterstitialTerminal(name) || IsRewardedTerminal(name);
+    }
+
+    // Destroys the callbacks of removed listeners and erases their entries.
+    // Never call while m_FanningOut is set.
+    static void CompactListeners()
+    {
+        std::vector<EventListener>& listeners = g_Appodeal.m_Listeners;
+        size_t kept = 0;
+        for (size_t i = 0; i < listeners.size(); ++i)
+        {
+            if (listeners[i].m_Removed)
+                DestroyCallback(&listeners[i].m_Callback);
+            if (listeners[i].m_Callback != 0x0)
+                listeners[kept++] = listeners[i];
+        }
+        listeners.resize(kept);
+    }
+
+    static void DestroyListeners()
+    {
+        for (size_t i = 0; i < g_Appodeal.m_Listeners.size(); ++i)
+            g_Appodeal.m_Listeners[i].m_Removed = true;
+        // A listener running set_event_mode("poll") must not free itself mid-call.
+        if (!g_Appodeal.m_FanningOut)
+            CompactListeners();
+    }
+
+    // Calls every listener whose mask matches. The event table is built once,
+    // on the first match, and the same table is passed to each listener.
+    // Listeners whose script instance is gone are dropped.
+    static uint32_t FanOutToListeners(const CallbackEvent& event)
+    {
+        std::vector<EventListener>& listeners = g_Appodeal.m_Listeners;
+        if (listeners.empty())
+            return 0;
+
+        uint32_t channel_bit = 1u << event.m_Channel;
+        uint32_t event_bit = EventBit(event.m_Event);
+        lua_State* L = 0x0;
+        int table_index = 0;
+        uint32_t invoked = 0;
+        bool dropped = false;
+
+        g_Appodeal.m_FanningOut = true;
+        // Listeners added by a callback take effect from the next event.
+        size_t count = listeners.size();
+        for (size_t i = 0; i < count; ++i)
+        {
+            if (listeners[i].m_Callback == 0x0
+                || listeners[i].m_Removed
+                || (listeners[i].m_ChannelMask & channel_bit) == 0
+                || (listeners[i].m_EventMask & event_bit) == 0)
+                continue;
+
+            dmScript::LuaCallbackInfo* callback = listeners[i].m_Callback;
+            if (!dmScript::IsCallbackValid(callback))
+            {
+                DestroyCallback(&listeners[i].m_Callback);
+                dropped = true;
+                continue;
+            }
+
+            if (L == 0x0)
+            {
+                L = dmScript::GetCallbackLuaContext(callback);
+                PushEventTable(L, event);
+                table_index = lua_gettop(L);
+            }
+
+            if (dmScript::SetupCallback(callback) != 0)
+            {
+                dmLogError("Failed to setup listener %u", listeners[i].m_Id);
+                continue;
+            }
+
+            lua_pushvalue(L, table_index);
+            int ret = dmScript::PCall(L, 1, 0);
+            if (ret != 0)
+            {
+                dmLogError("Listener %u failed: %s", listeners[i].m_Id, lua_tostring(L, -1));
+                lua_pop(L, 1);
+            }
+            dmScript::TeardownCallback(callback);
+            ++invoked;
+        }
+        g_Appodeal.m_FanningOut = false;
+
+        if (L != 0x0)
+            lua_pop(L, 1);
+
+        // A callback may have unsubscribed, leaving a removed entry.
+        if (dropped || invoked > 0)
+            CompactListeners();
+        return invoked;
     }
 
     static void DispatchEvent(const CallbackEvent& event)
     {
+        TraceScope trace("Appodeal:DispatchEvent");
         dmScript::LuaCallbackInfo** callback = 0x0;
         bool destroy = false;
 
@@ -183,33 +477,16 @@ namespace
         {
             callback = &g_Appodeal.m_RewardedCallback;
             destroy = IsRewardedTerminal(event.m_Event);
+        }
 
-            // Save reward/closed result to pending state as fallback.
-            // Even if the Lua callback is stale after pause/resume,
-            // poll_rewarded_result() will pick it up.
-            if (event.m_Event == "reward" || event.m_Event == "closed")
-            {
-                bool is_success = false;
-                if (event.m_Event == "reward")
-                {
-                    is_success = true;
-                }
-                else if (event.m_Event == "closed")
-                {
-                    is_success = event.m_Rewarded;
-                }
+        // Retries exist only for the show_* callback; listeners already had this event.
+        uint32_t listeners_invoked = event.m_RetryCount == 0 ? FanOutToListeners(event) : 0;
 
-                if (is_success)
-                {
-                    std::lock_guard<std::mutex> lock(g_Appodeal.m_PendingRewardMutex);
-                    g_Appodeal.m_PendingReward.m_HasResult = true;
-                    g_Appodeal.m_PendingReward.m_Success = true;
-                    g_Appodeal.m_PendingReward.m_Amount = event.m_Amount;
-                    g_Appodeal.m_PendingReward.m_Currency = event.m_Currency;
-                    dmLogInfo("Pending reward saved: amount=%.1f", event.m_Amount);
-                }
-            }
-        }
+        // An unattributed expired comes from a background cache slot while the
+        // shown ad is on screen: it is for listeners only and must not end the
+        // show_* callback that still waits for closed.
+        if (event.m_Channel != EVENT_INIT && event.m_Session == 0 && event.m_Event == "expired")
+            return;
 
         if (callback != 0x0 && *callback != 0x0)
         {
@@ -245,42 +522,107 @@ namespace
                 DestroyCallback(callback);
             }
         }
-        else
+        else if (listeners_invoked == 0)
         {
             dmLogWarning("DispatchEvent: NO callback for channel=%d event=%s (callback_ptr=%p)",
                 event.m_Channel, event.m_Event.c_str(), callback ? (void*)*callback : (void*)0x0);
         }
     }
 
+    // Events that end a flow (and the reward) are dispatched even over budget.
+    static bool IsPriorityEvent(const CallbackEvent& event)
+    {
+        switch (event.m_Channel)
+        {
+            case EVENT_INIT:
+                return true;
+            case EVENT_INTERSTITIAL:
+                return IsInterstitialTerminal(event.m_Event);
+            case EVENT_REWARDED:
+                return event.m_Event == "reward" || IsRewardedTerminal(event.m_Event);
+            default:
+                return false;
+        }
+    }
+
+    // Dispatches the events queued before this frame within the dispatch
+    // budget. Order is kept per channel: everything up to a channel's last
+    // priority event goes out this frame, and once an informational event is
+    // carried over, the rest of its channel waits with it.
     static void FlushEvents()
     {
-        uint32_t events_to_process = 0;
+        std::deque<CallbackEvent> batch;
         {
             std::lock_guard<std::mutex> lock(g_Appodeal.m_EventsMutex);
-            events_to_process = (uint32_t) g_Appodeal.m_Events.size();
+            batch.swap(g_Appodeal.m_Events);
+        }
+
+        if (batch.empty())
+            return;
+
+        TraceScope trace("Appodeal:FlushEvents");
+
+        int last_priority[EVENT_CHANNEL_COUNT] = { -1, -1, -1 };
+        for (size_t i = 0; i < batch.size(); ++i)
+        {
+            if (IsPriorityEvent(batch[i]))
+                last_priority[batch[i].m_Channel] = (int) i;
         }
 
-        for (uint32_t i = 0; i < events_to_process; ++i)
+        bool channel_deferred[EVENT_CHANNEL_COUNT] = { false, false, false };
+        std::deque<CallbackEvent> carried;
+        uint64_t start = dmTime::GetMonotonicTime();
+        uint32_t dispatched = 0;
+
+        for (size_t i = 0; i < batch.size(); ++i)
         {
-            CallbackEvent event;
-            bool has_event = false;
+            const CallbackEvent& event = batch[i];
+            double elapsed_ms = (dmTime::GetMonotonicTime() - start) / 1000.0;
+            bool over_budget = (g_Appodeal.m_DispatchBudgetMs > 0.0 && elapsed_ms >= g_Appodeal.m_DispatchBudgetMs)
+                || (g_Appodeal.m_DispatchMaxEvents > 0 && dispatched >= g_Appodeal.m_DispatchMaxEvents);
+            bool required = (int) i <= last_priority[event.m_Channel];
+
+            if (channel_deferred[event.m_Channel] || (over_budget && !required))
             {
-                std::lock_guard<std::mutex> lock(g_Appodeal.m_EventsMutex);
-                if (!g_Appodeal.m_Events.empty())
-                {
-                    event = g_Appodeal.m_Events.front();
-                    g_Appodeal.m_Events.pop();
-                    has_event = true;
-                }
+                channel_deferred[event.m_Channel] = true;
+                carried.push_back(event);
+                continue;
             }
 
-            if (!has_event)
-                break;
-
             DispatchEvent(event);
+            ++dispatched;
+        }
+
+        double frame_ms = (dmTime::GetMonotonicTime() - start) / 1000.0;
+        if (frame_ms > g_Appodeal.m_DispatchMaxFrameMs)
+            g_Appodeal.m_DispatchMaxFrameMs = frame_ms;
+
+        if (!carried.empty())
+        {
+            g_Appodeal.m_DispatchCarriedOver += carried.size();
+            g_Appodeal.m_DispatchOverBudgetFrames++;
+
+            // Carried events go ahead of anything queued while dispatching (retries, new callbacks).
+            std::lock_guard<std::mutex> lock(g_Appodeal.m_EventsMutex);
+            g_Appodeal.m_Events.insert(g_Appodeal.m_Events.begin(), carried.begin(), carried.end());
         }
     }
 
+    static std::string GetDispatchStats()
+    {
+        char line[256];
+        snprintf(line, sizeof(line),
+            "dispatch\tbudget_ms=%.3f\tmax_events=%u\tcarried_over=%llu\tover_budget_frames=%llu\tmax_frame_ms=%.3f\tmax_latency_ms=%.3f\tlisteners=%u\n",
+            g_Appodeal.m_DispatchBudgetMs,
+            g_Appodeal.m_DispatchMaxEvents,
+            (unsigned long long) g_Appodeal.m_DispatchCarriedOver,
+            (unsigned long long) g_Appodeal.m_DispatchOverBudgetFrames,
+            g_Appodeal.m_DispatchMaxFrameMs,
+            g_Appodeal.m_DispatchMaxLatencyMs,
+            (uint32_t) g_Appodeal.m_Listeners.size());
+        return line;
+    }
+
 #if defined(DM_PLATFORM_ANDROID)
     const char* JAVA_CLASS_NAME = "com.defold.appodeal.AppodealBridge";
 
@@ -410,18 +752,117 @@ namespace
         return loaded_class;
     }
 
-    static bool EnsureJniReady(JNIEnv* env)
+    static std::string JStringToString(JNIEnv* env, jstring value)
     {
-        if (g_Appodeal.m_Jni.m_Class != 0x0 &&
-            g_Appodeal.m_Jni.m_Initialize != 0x0 &&
-            g_Appodeal.m_Jni.m_IsInterstitialAvailable != 0x0 &&
-            g_Appodeal.m_Jni.m_ShowInterstitial != 0x0 &&
-            g_Appodeal.m_Jni.m_IsRewardedAvailable != 0x0 &&
-            g_Appodeal.m_Jni.m_ShowRewarded != 0x0 &&
-            g_Appodeal.m_Jni.m_ShowConsentForm != 0x0)
-        {
+        if (value == 0x0)
+            return "";
+
+        const char* chars = env->GetStringUTFChars(value, 0);
+        std::string result = chars ? chars : "";
+        if (chars != 0x0)
+            env->ReleaseStringUTFChars(value, chars);
+        return result;
+    }
+
+    static void JNICALL NativeOnInit(
+        JNIEnv* env, jclass, jboolean success, jstring reason, jlong source_nanos)
+    {
+        if (!g_Appodeal.m_Jni.m_Attached.load())
+            return;
+        CallbackEvent event;
+        event.m_Channel = EVENT_INIT;
+        event.m_SourceNanos = (uint64_t) source_nanos;
+        event.m_Success = success == JNI_TRUE;
+        event.m_Event = event.m_Success ? "initialized" : "init_failed";
+        event.m_Error = JStringToString(env, reason);
+        event.m_Rewarded = false;
+        event.m_Amount = 0.0;
+        EnqueueEvent(event);
+    }
+
+    static void JNICALL NativeOnInterstitialEvent(
+        JNIEnv* env, jclass, jstring event_name, jboolean success, jstring reason, jint session, jlong source_nanos)
+    {
+        if (!g_Appodeal.m_Jni.m_Attached.load())
+            return;
+        CallbackEvent event;
+        event.m_Channel = EVENT_INTERSTITIAL;
+        event.m_Session = (uint32_t) session;
+        event.m_SourceNanos = (uint64_t) source_nanos;
+        event.m_Success = success == JNI_TRUE;
+        event.m_Event = JStringToString(env, event_name);
+        event.m_Error = JStringToString(env, reason);
+        event.m_Rewarded = false;
+        event.m_Amount = 0.0;
+        EnqueueEvent(event);
+    }
+
+    static void JNICALL NativeOnRewardedEvent(
+        JNIEnv* env, jclass, jstring event_name, jboolean success, jstring reason, jboolean rewarded, jdouble amount, jstring currency, jint session, jlong source_nanos)
+    {
+        if (!g_Appodeal.m_Jni.m_Attached.load())
+            return;
+        CallbackEvent event;
+        event.m_Channel = EVENT_REWARDED;
+        event.m_Session = (uint32_t) session;
+        event.m_SourceNanos = (uint64_t) source_nanos;
+        event.m_Success = success == JNI_TRUE;
+        event.m_Event = JStringToString(env, event_name);
+        event.m_Error = JStringToString(env, reason);
+        event.m_Rewarded = rewarded == JNI_TRUE;
+        event.m_Amount = amount;
+        event.m_Currency = JStringToString(env, currency);
+        EnqueueEvent(event);
+    }
+
+    static void JNICALL NativeOnStateChanged(
+        JNIEnv* env, jclass, jlong version, jint flags, jint pending_rewards, jstring consent)
+    {
+        if (!g_Appodeal.m_Jni.m_Attached.load())
+            return;
+        std::string consent_name = JStringToString(env, consent);
+        std::lock_guard<std::mutex> lock(g_Appodeal.m_StateMutex);
+        if ((uint64_t) version <= g_Appodeal.m_StateVersion)
+            return;
+        g_Appodeal.m_StateVersion = (uint64_t) version;
+        g_Appodeal.m_StateFlags = (uint32_t) flags;
+        g_Appodeal.m_StatePendingRewards = (uint32_t) pending_rewards;
+        g_Appodeal.m_StateConsent = consent_name;
+    }
+
+    // Bound with RegisterNatives so Java never goes through symbol lookup of
+    // Java_com_defold_appodeal_AppodealBridge_* names.
+    static const JNINativeMethod NATIVE_METHODS[] =
+    {
+        {"nativeOnInit", "(ZLjava/lang/String;J)V", (void*) NativeOnInit},
+        {"nativeOnInterstitialEvent", "(Ljava/lang/String;ZLjava/lang/String;IJ)V", (void*) NativeOnInterstitialEvent},
+        {"nativeOnRewardedEvent", "(Ljava/lang/String;ZLjava/lang/String;ZDLjava/lang/String;IJ)V", (void*) NativeOnRewardedEvent},
+        {"nativeOnStateChanged", "(JIILjava/lang/String;)V", (void*) NativeOnStateChanged},
+    };
+
+    static bool RegisterNativeMethods(JNIEnv* env)
+    {
+        if (g_Appodeal.m_Jni.m_NativesRegistered)
             return true;
+
+        jint count = (jint) (sizeof(NATIVE_METHODS) / sizeof(NATIVE_METHODS[0]));
+        if (env->RegisterNatives(g_Appodeal.m_Jni.m_Class, NATIVE_METHODS, count) != JNI_OK)
+        {
+            ClearJniException(env, "RegisterNatives");
+            dmLogError("Failed to register native methods");
+            return false;
         }
+        g_Appodeal.m_Jni.m_NativesRegistered = true;
+        return true;
+    }
+
+    // Resolves the bridge class and method IDs and registers the native
+    // methods. Runs from AppodealAppInitialize; Lua calls then only test
+    // m_Ready, and a failed early attempt is retried on the first call.
+    static bool EnsureJniReady(JNIEnv* env)
+    {
+        if (g_Appodeal.m_Jni.m_Ready)
+            return true;
 
         if (g_Appodeal.m_Jni.m_Class == 0x0)
         {
@@ -442,28 +883,66 @@ namespace
             }
         }
 
-        g_Appodeal.m_Jni.m_Initialize = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "initialize", "(Ljava/lang/String;ZLjava/lang/String;)Z");
+        g_Appodeal.m_Jni.m_Initialize = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "initialize", "(Ljava/lang/String;ZLjava/lang/String;Ljava/lang/String;)Z");
         g_Appodeal.m_Jni.m_IsInterstitialAvailable = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "isInterstitialAvailable", "()Z");
         g_Appodeal.m_Jni.m_ShowInterstitial = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "showInterstitial", "()Z");
         g_Appodeal.m_Jni.m_IsRewardedAvailable = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "isRewardedAvailable", "()Z");
         g_Appodeal.m_Jni.m_ShowRewarded = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "showRewarded", "()Z");
+        g_Appodeal.m_Jni.m_ShowInterstitialWhenReady = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "showInterstitialWhenReady", "(I)Z");
+        g_Appodeal.m_Jni.m_ShowRewardedWhenReady = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "showRewardedWhenReady", "(I)Z");
         g_Appodeal.m_Jni.m_ShowConsentForm = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "showConsentForm", "()Z");
+        g_Appodeal.m_Jni.m_PreloadConsentForm = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "preloadConsentForm", "()Z");
+        g_Appodeal.m_Jni.m_SetMainThreadBudgetMs = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "setMainThreadBudgetMs", "(I)V");
+        g_Appodeal.m_Jni.m_SetShowTimeoutMs = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "setShowTimeoutMs", "(I)V");
+        g_Appodeal.m_Jni.m_GetBridgeStats = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "getBridgeStats", "()Ljava/lang/String;");
+        g_Appodeal.m_Jni.m_HintUpcoming = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "hintUpcoming", "(Ljava/lang/String;I)V");
+        g_Appodeal.m_Jni.m_NotifyGameReady = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "notifyGameReady", "()V");
+        g_Appodeal.m_Jni.m_SetEventMask = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "setEventMask", "(I)V");
+        g_Appodeal.m_Jni.m_DrainRewards = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "drainRewards", "()Ljava/lang/String;");
+        g_Appodeal.m_Jni.m_AcknowledgeRewards = env->GetStaticMethodID(g_Appodeal.m_Jni.m_Class, "acknowledgeRewards", "(J)V");
 
         if (g_Appodeal.m_Jni.m_Initialize == 0x0 ||
             g_Appodeal.m_Jni.m_IsInterstitialAvailable == 0x0 ||
             g_Appodeal.m_Jni.m_ShowInterstitial == 0x0 ||
             g_Appodeal.m_Jni.m_IsRewardedAvailable == 0x0 ||
             g_Appodeal.m_Jni.m_ShowRewarded == 0x0 ||
-            g_Appodeal.m_Jni.m_ShowConsentForm == 0x0)
+            g_Appodeal.m_Jni.m_ShowInterstitialWhenReady == 0x0 ||
+            g_Appodeal.m_Jni.m_ShowRewardedWhenReady == 0x0 ||
+            g_Appodeal.m_Jni.m_ShowConsentForm == 0x0 ||
+            g_Appodeal.m_Jni.m_PreloadConsentForm == 0x0 ||
+            g_Appodeal.m_Jni.m_SetMainThreadBudgetMs == 0x0 ||
+            g_Appodeal.m_Jni.m_SetShowTimeoutMs == 0x0 ||
+            g_Appodeal.m_Jni.m_GetBridgeStats == 0x0 ||
+            g_Appodeal.m_Jni.m_HintUpcoming == 0x0 ||
+            g_Appodeal.m_Jni.m_NotifyGameReady == 0x0 ||
+            g_Appodeal.m_Jni.m_SetEventMask == 0x0 ||
+            g_Appodeal.m_Jni.m_DrainRewards == 0x0 ||
+            g_Appodeal.m_Jni.m_AcknowledgeRewards == 0x0)
         {
             ClearJniException(env, "GetStaticMethodID");
             dmLogError("Failed to resolve one or more Java method IDs");
             return false;
         }
 
+        if (!RegisterNativeMethods(env))
+            return false;
+
+        g_Appodeal.m_Jni.m_Ready = true;
         return true;
     }
 
+    // The natives and the class reference stay in place for the life of the
+    // process: SDK callbacks, the monitors and the journal thread keep calling
+    // into native after the engine finalizes (sys.reboot finalizes without
+    // ending the process), and an unregistered native would throw
+    // UnsatisfiedLinkError on their thread. Finalize only stops the handlers.
+    static void DetachNatives()
+    {
+        g_Appodeal.m_Jni.m_Attached.store(false);
+        std::lock_guard<std::mutex> lock(g_Appodeal.m_EventsMutex);
+        g_Appodeal.m_Events.clear();
+    }
+
     static bool JavaInitialize(const char* app_key, bool testing, const char* log_level)
     {
         JniEnvScope env_scope;
@@ -473,18 +952,21 @@ namespace
         JNIEnv* env = env_scope.m_Env;
         jstring j_app_key = env->NewStringUTF(app_key);
         jstring j_log_level = env->NewStringUTF(log_level);
+        jstring j_adapter_preset = env->NewStringUTF(g_Appodeal.m_AdapterPreset.c_str());
 
         jboolean result = env->CallStaticBooleanMethod(
             g_Appodeal.m_Jni.m_Class,
             g_Appodeal.m_Jni.m_Initialize,
             j_app_key,
             testing ? JNI_TRUE : JNI_FALSE,
-            j_log_level
+            j_log_level,
+            j_adapter_preset
         );
         ClearJniException(env, "CallStaticBooleanMethod(initialize)");
 
         env->DeleteLocalRef(j_app_key);
         env->DeleteLocalRef(j_log_level);
+        env->DeleteLocalRef(j_adapter_preset);
         return result == JNI_TRUE;
     }
 
@@ -536,69 +1018,152 @@ namespace
         return result == JNI_TRUE;
     }
 
-    static bool JavaShowConsentForm()
+    static bool JavaShowInterstitialWhenReady(int timeout_ms)
     {
         JniEnvScope env_scope;
         if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
             return false;
 
         JNIEnv* env = env_scope.m_Env;
-        jboolean result = env->CallStaticBooleanMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_ShowConsentForm);
-        ClearJniException(env, "CallStaticBooleanMethod(showConsentForm)");
+        jboolean result = env->CallStaticBooleanMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_ShowInterstitialWhenReady, (jint) timeout_ms);
+        ClearJniException(env, "CallStaticBooleanMethod(showInterstitialWhenReady)");
         return result == JNI_TRUE;
     }
 
-    static std::string JStringToString(JNIEnv* env, jstring value)
+    static bool JavaShowRewardedWhenReady(int timeout_ms)
     {
-        if (value == 0x0)
-            return "";
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+            return false;
 
-        const char* chars = env->GetStringUTFChars(value, 0);
-        std::string result = chars ? chars : "";
-        if (chars != 0x0)
-            env->ReleaseStringUTFChars(value, chars);
-        return result;
+        JNIEnv* env = env_scope.m_Env;
+        jboolean result = env->CallStaticBooleanMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_ShowRewardedWhenReady, (jint) timeout_ms);
+        ClearJniException(env, "CallStaticBooleanMethod(showRewardedWhenReady)");
+        return result == JNI_TRUE;
     }
 
-    extern "C" JNIEXPORT void JNICALL Java_com_defold_appodeal_AppodealBridge_nativeOnInit(
-        JNIEnv* env, jclass, jboolean success, jstring reason)
+    static bool JavaShowConsentForm()
     {
-        CallbackEvent event;
-        event.m_Channel = EVENT_INIT;
-        event.m_Success = success == JNI_TRUE;
-        event.m_Event = event.m_Success ? "initialized" : "init_failed";
-        event.m_Error = JStringToString(env, reason);
-        event.m_Rewarded = false;
-        event.m_Amount = 0.0;
-        EnqueueEvent(event);
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+            return false;
+
+        JNIEnv* env = env_scope.m_Env;
+        jboolean result = env->CallStaticBooleanMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_ShowConsentForm);
+        ClearJniException(env, "CallStaticBooleanMethod(showConsentForm)");
+        return result == JNI_TRUE;
     }
 
-    extern "C" JNIEXPORT void JNICALL Java_com_defold_appodeal_AppodealBridge_nativeOnInterstitialEvent(
-        JNIEnv* env, jclass, jstring event_name, jboolean success, jstring reason)
+    static bool JavaPreloadConsentForm()
     {
-        CallbackEvent event;
-        event.m_Channel = EVENT_INTERSTITIAL;
-        event.m_Success = success == JNI_TRUE;
-        event.m_Event = JStringToString(env, event_name);
-        event.m_Error = JStringToString(env, reason);
-        event.m_Rewarded = false;
-        event.m_Amount = 0.0;
-        EnqueueEvent(event);
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+            return false;
+
+        JNIEnv* env = env_scope.m_Env;
+        jboolean result = env->CallStaticBooleanMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_PreloadConsentForm);
+        ClearJniException(env, "CallStaticBooleanMethod(preloadConsentForm)");
+        return result == JNI_TRUE;
     }
 
-    extern "C" JNIEXPORT void JNICALL Java_com_defold_appodeal_AppodealBridge_nativeOnRewardedEvent(
-        JNIEnv* env, jclass, jstring event_name, jboolean success, jstring reason, jboolean rewarded, jdouble amount, jstring currency)
+    static void JavaSetMainThreadBudgetMs(int budget_ms)
     {
-        CallbackEvent event;
-        event.m_Channel = EVENT_REWARDED;
-        event.m_Success = success == JNI_TRUE;
-        event.m_Event = JStringToString(env, event_name);
-        event.m_Error = JStringToString(env, reason);
-        event.m_Rewarded = rewarded == JNI_TRUE;
-        event.m_Amount = amount;
-        event.m_Currency = JStringToString(env, currency);
-        EnqueueEvent(event);
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+            return;
+
+        JNIEnv* env = env_scope.m_Env;
+        env->CallStaticVoidMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_SetMainThreadBudgetMs, (jint) budget_ms);
+        ClearJniException(env, "CallStaticVoidMethod(setMainThreadBudgetMs)");
+    }
+
+    static void JavaSetShowTimeoutMs(int timeout_ms)
+    {
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+            return;
+
+        JNIEnv* env = env_scope.m_Env;
+        env->CallStaticVoidMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_SetShowTimeoutMs, (jint) timeout_ms);
+        ClearJniException(env, "CallStaticVoidMethod(setShowTimeoutMs)");
+    }
+
+    static void JavaHintUpcoming(const char* ad_type, int in_ms)
+    {
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+            return;
+
+        JNIEnv* env = env_scope.m_Env;
+        jstring j_ad_type = env->NewStringUTF(ad_type);
+        env->CallStaticVoidMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_HintUpcoming, j_ad_type, (jint) in_ms);
+        ClearJniException(env, "CallStaticVoidMethod(hintUpcoming)");
+        env->DeleteLocalRef(j_ad_type);
     }
+
+    static void JavaNotifyGameReady()
+    {
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+            return;
+
+        JNIEnv* env = env_scope.m_Env;
+        env->CallStaticVoidMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_NotifyGameReady);
+        ClearJniException(env, "CallStaticVoidMethod(notifyGameReady)");
+    }
+
+    static void JavaSetEventMask(uint32_t mask)
+    {
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+            return;
+
+        JNIEnv* env = env_scope.m_Env;
+        env->CallStaticVoidMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_SetEventMask, (jint) mask);
+        ClearJniException(env, "CallStaticVoidMethod(setEventMask)");
+    }
+
+    static std::string JavaDrainRewards()
+    {
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+            return std::string();
+
+        JNIEnv* env = env_scope.m_Env;
+        jstring result = (jstring) env->CallStaticObjectMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_DrainRewards);
+        ClearJniException(env, "CallStaticObjectMethod(drainRewards)");
+        std::string text = JStringToString(env, result);
+        if (result != 0x0)
+            env->DeleteLocalRef(result);
+        return text;
+    }
+
+    static void JavaAcknowledgeRewards(int64_t seq)
+    {
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+            return;
+
+        JNIEnv* env = env_scope.m_Env;
+        env->CallStaticVoidMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_AcknowledgeRewards, (jlong) seq);
+        ClearJniException(env, "CallStaticVoidMethod(acknowledgeRewards)");
+    }
+
+    static std::string JavaGetBridgeStats()
+    {
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+            return "";
+
+        JNIEnv* env = env_scope.m_Env;
+        jstring result = (jstring) env->CallStaticObjectMethod(g_Appodeal.m_Jni.m_Class, g_Appodeal.m_Jni.m_GetBridgeStats);
+        ClearJniException(env, "CallStaticObjectMethod(getBridgeStats)");
+        std::string stats = JStringToString(env, result);
+        if (result != 0x0)
+            env->DeleteLocalRef(result);
+        return stats;
+    }
+
 #endif
 
     static int LuaInit(lua_State* L)
@@ -606,7 +1171,7 @@ namespace
         DM_LUA_STACK_CHECK(L, 0);
 
         luaL_checktype(L, 1, LUA_TTABLE);
-        if (!lua_isfunction(L, 2))
+        if (!g_Appodeal.m_PollEvents && !lua_isfunction(L, 2))
         {
             return luaL_error(L, "appodeal.init expects callback function");
         }
@@ -632,9 +1197,7 @@ namespace
             log_level = lua_tostring(L, -1);
         lua_pop(L, 1);
 
-        DestroyCallback(&g_Appodeal.m_InitCallback);
-        g_Appodeal.m_InitCallback = dmScript::CreateCallback(L, 2);
-        if (g_Appodeal.m_InitCallback == 0x0)
+        if (!StoreCallback(L, 2, &g_Appodeal.m_InitCallback))
         {
             return luaL_error(L, "failed to create init callback");
         }
@@ -675,47 +1238,51 @@ namespace
         return 1;
     }
 
-    static int LuaShowInterstitial(lua_State* L)
+    // Shared body of show_interstitial, show_rewarded and the _when_ready
+    // variants: stores the callback and reports show_failed if the bridge
+    // rejects the call. timeout_ms < 0 selects the immediate show.
+    static int ShowAd(lua_State* L, const char* name, EventChannel channel, int callback_index, int timeout_ms)
     {
-        DM_LUA_STACK_CHECK(L, 0);
-
-        if (!lua_isfunction(L, 1))
+        bool rewarded = channel == EVENT_REWARDED;
+        if (!g_Appodeal.m_PollEvents && !lua_isfunction(L, callback_index))
         {
-            return luaL_error(L, "appodeal.show_interstitial expects callback function");
+            return luaL_error(L, "appodeal.%s expects callback function", name);
         }
 
-        DestroyCallback(&g_Appodeal.m_InterstitialCallback);
-        g_Appodeal.m_InterstitialCallback = dmScript::CreateCallback(L, 1);
-        if (g_Appodeal.m_InterstitialCallback == 0x0)
+        if (!StoreCallback(L, callback_index, rewarded ? &g_Appodeal.m_RewardedCallback : &g_Appodeal.m_InterstitialCallback))
         {
-            return luaL_error(L, "failed to create interstitial callback");
+            return luaL_error(L, "failed to create %s callback", rewarded ? "rewarded" : "interstitial");
         }
 
-#if defined(DM_PLATFORM_ANDROID)
-        if (!JavaShowInterstitial())
-        {
-            CallbackEvent event;
-            event.m_Channel = EVENT_INTERSTITIAL;
-            event.m_Event = "show_failed";
-            event.m_Success = false;
-            event.m_Error = "java_show_failed";
-            event.m_Rewarded = false;
-            event.m_Amount = 0.0;
-            EnqueueEvent(event);
-        }
-#else
         CallbackEvent event;
-        event.m_Channel = EVENT_INTERSTITIAL;
+        event.m_Channel = channel;
         event.m_Event = "show_failed";
         event.m_Success = false;
-        event.m_Error = "android_only";
         event.m_Rewarded = false;
         event.m_Amount = 0.0;
-        EnqueueEvent(event);
+#if defined(DM_PLATFORM_ANDROID)
+        bool started;
+        if (rewarded)
+            started = timeout_ms < 0 ? JavaShowRewarded() : JavaShowRewardedWhenReady(timeout_ms);
+        else
+            started = timeout_ms < 0 ? JavaShowInterstitial() : JavaShowInterstitialWhenReady(timeout_ms);
+        if (started)
+            return 0;
+        event.m_Error = "java_show_failed";
+#else
+        (void)timeout_ms;
+        event.m_Error = "android_only";
 #endif
+        EnqueueEvent(event);
         return 0;
     }
 
+    static int LuaShowInterstitial(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
+        return ShowAd(L, "show_interstitial", EVENT_INTERSTITIAL, 1, -1);
+    }
+
     static int LuaIsRewardedAvailable(lua_State* L)
     {
         DM_LUA_STACK_CHECK(L, 1);
@@ -730,85 +1297,541 @@ namespace
     static int LuaShowRewarded(lua_State* L)
     {
         DM_LUA_STACK_CHECK(L, 0);
+        return ShowAd(L, "show_rewarded", EVENT_REWARDED, 1, -1);
+    }
+
+    // show_interstitial_when_ready(timeout_seconds, callback)
+    static int LuaShowInterstitialWhenReady(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
+
+        double timeout_seconds = luaL_checknumber(L, 1);
+        return ShowAd(L, "show_interstitial_when_ready", EVENT_INTERSTITIAL, 2, (int) (timeout_seconds > 0.0 ? timeout_seconds * 1000.0 : 0.0));
+    }
+
+    // show_rewarded_when_ready(timeout_seconds, callback)
+    static int LuaShowRewardedWhenReady(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
+
+        double timeout_seconds = luaL_checknumber(L, 1);
+        return ShowAd(L, "show_rewarded_when_ready", EVENT_REWARDED, 2, (int) (timeout_seconds > 0.0 ? timeout_seconds * 1000.0 : 0.0));
+    }
+
+    static int LuaShowConsentForm(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
 
-        if (!lua_isfunction(L, 1))
+#if defined(DM_PLATFORM_ANDROID)
+        JavaShowConsentForm();
+#endif
+        return 0;
+    }
+
+    static int LuaPreloadConsentForm(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
+
+#if defined(DM_PLATFORM_ANDROID)
+        JavaPreloadConsentForm();
+#endif
+        return 0;
+    }
+
+    static void PushStatsValue(lua_State* L, const std::string& value)
+    {
+        if (value.find(',') != std::string::npos)
         {
-            return luaL_error(L, "appodeal.show_rewarded expects callback function");
+            lua_newtable(L);
+            int index = 1;
+            size_t start = 0;
+            while (start <= value.size())
+            {
+                size_t end = value.find(',', start);
+                if (end == std::string::npos)
+                    end = value.size();
+                lua_pushnumber(L, strtod(value.substr(start, end - start).c_str(), 0x0));
+                lua_rawseti(L, -2, index++);
+                start = end + 1;
+            }
+            return;
         }
 
-        DestroyCallback(&g_Appodeal.m_RewardedCallback);
-        g_Appodeal.m_RewardedCallback = dmScript::CreateCallback(L, 1);
-        if (g_Appodeal.m_RewardedCallback == 0x0)
+        char* end = 0x0;
+        double number = strtod(value.c_str(), &end);
+        if (!value.empty() && end != 0x0 && *end == '\0')
+            lua_pushnumber(L, number);
+        else
+            lua_pushstring(L, value.c_str());
+    }
+
+    // Builds a nested table from the bridge stats text: each line is a dotted
+    // path followed by tab-separated key=value pairs. Expects the root table
+    // on top of the stack.
+    static void FillStatsTable(lua_State* L, const std::string& text)
+    {
+        size_t line_start = 0;
+        while (line_start < text.size())
         {
-            return luaL_error(L, "failed to create rewarded callback");
+            size_t line_end = text.find('\n', line_start);
+            if (line_end == std::string::npos)
+                line_end = text.size();
+            std::string line = text.substr(line_start, line_end - line_start);
+            line_start = line_end + 1;
+            if (line.empty())
+                continue;
+
+            size_t path_end = line.find('\t');
+            std::string path = line.substr(0, path_end);
+
+            lua_pushvalue(L, -1);
+            size_t part_start = 0;
+            while (part_start < path.size())
+            {
+                size_t part_end = path.find('.', part_start);
+                if (part_end == std::string::npos)
+                    part_end = path.size();
+                std::string part = path.substr(part_start, part_end - part_start);
+                part_start = part_end + 1;
+
+                lua_getfield(L, -1, part.c_str());
+                if (!lua_istable(L, -1))
+                {
+                    lua_pop(L, 1);
+                    lua_newtable(L);
+                    lua_pushvalue(L, -1);
+                    lua_setfield(L, -3, part.c_str());
+                }
+                lua_remove(L, -2);
+            }
+
+            size_t field_start = path_end;
+            while (field_start != std::string::npos && field_start < line.size())
+            {
+                field_start += 1;
+                size_t field_end = line.find('\t', field_start);
+                std::string field = line.substr(field_start, field_end == std::string::npos ? std::string::npos : field_end - field_start);
+                field_start = field_end;
+
+                size_t separator = field.find('=');
+                if (separator == std::string::npos)
+                    continue;
+
+                PushStatsValue(L, field.substr(separator + 1));
+                lua_setfield(L, -2, field.substr(0, separator).c_str());
+            }
+
+            lua_pop(L, 1);
         }
+    }
+
+    static int LuaGetBridgeStats(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 1);
 
+        lua_newtable(L);
 #if defined(DM_PLATFORM_ANDROID)
-        if (!JavaShowRewarded())
+        FillStatsTable(L, JavaGetBridgeStats());
+#endif
+        FillStatsTable(L, GetDispatchStats());
+        return 1;
+    }
+
+    // hint_upcoming(ad_type, seconds): ad_type is "interstitial" or "rewarded";
+    // a negative seconds value returns the type to auto-cache.
+    static int LuaHintUpcoming(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
+
+        const char* ad_type = luaL_checkstring(L, 1);
+        double seconds = luaL_checknumber(L, 2);
+        if (strcmp(ad_type, "interstitial") != 0 && strcmp(ad_type, "rewarded") != 0)
         {
-            CallbackEvent event;
-            event.m_Channel = EVENT_REWARDED;
-            event.m_Event = "show_failed";
-            event.m_Success = false;
-            event.m_Error = "java_show_failed";
-            event.m_Rewarded = false;
-            event.m_Amount = 0.0;
-            EnqueueEvent(event);
+            return luaL_error(L, "appodeal.hint_upcoming expects ad_type \"interstitial\" or \"rewarded\"");
         }
+
+#if defined(DM_PLATFORM_ANDROID)
+        JavaHintUpcoming(ad_type, seconds < 0.0 ? -1 : (int) (seconds * 1000.0));
 #else
-        CallbackEvent event;
-        event.m_Channel = EVENT_REWARDED;
-        event.m_Event = "show_failed";
-        event.m_Success = false;
-        event.m_Error = "android_only";
-        event.m_Rewarded = false;
-        event.m_Amount = 0.0;
-        EnqueueEvent(event);
+        (void)seconds;
 #endif
         return 0;
     }
 
-    static int LuaShowConsentForm(lua_State* L)
+    static int LuaNotifyGameReady(lua_State* L)
     {
         DM_LUA_STACK_CHECK(L, 0);
 
 #if defined(DM_PLATFORM_ANDROID)
-        JavaShowConsentForm();
+        JavaNotifyGameReady();
 #endif
         return 0;
     }
 
-    // Poll for a pending rewarded result.
-    // Returns nil if no result, or {success=true, amount=N, currency="..."}
-    static int LuaPollRewardedResult(lua_State* L)
+    // set_event_filter(events): informational events the game consumes, or nil
+    // for all. Excluded events are dropped in Java before crossing JNI.
+    static int LuaSetEventFilter(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
+
+        uint32_t mask = FILTER_EVENT_ALL;
+        if (!lua_isnoneornil(L, 1))
+        {
+            luaL_checktype(L, 1, LUA_TTABLE);
+            mask = 0;
+            int n = (int) lua_objlen(L, 1);
+            for (int i = 1; i <= n; ++i)
+            {
+                lua_rawgeti(L, 1, i);
+                const char* name = lua_tostring(L, -1);
+                lua_pop(L, 1);
+                if (name == 0x0)
+                    return luaL_error(L, "appodeal.set_event_filter expects a list of event names");
+
+                uint32_t bit = FilterEventBit(name);
+                if (bit == 0 && !IsAlwaysDeliveredEvent(name))
+                    return luaL_error(L, "appodeal.set_event_filter: unknown event '%s'", name);
+                mask |= bit;
+            }
+        }
+
+#if defined(DM_PLATFORM_ANDROID)
+        JavaSetEventMask(mask);
+#endif
+        return 0;
+    }
+
+    // set_dispatch_budget(ms, max_events): per-frame limit for Lua callback
+    // dispatch. 0 (or nil for max_events) means no limit of that kind.
+    static int LuaSetDispatchBudget(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
+
+        double budget_ms = luaL_checknumber(L, 1);
+        lua_Integer max_events = luaL_optinteger(L, 2, 0);
+        g_Appodeal.m_DispatchBudgetMs = budget_ms > 0.0 ? budget_ms : 0.0;
+        g_Appodeal.m_DispatchMaxEvents = max_events > 0 ? (uint32_t) max_events : 0;
+        return 0;
+    }
+
+    // Reads an optional array of names into a bitmask; nil or missing means all.
+    static uint32_t CheckNameMask(lua_State* L, int table_index, const char* field, const char** names, uint32_t name_count)
+    {
+        lua_getfield(L, table_index, field);
+        if (lua_isnil(L, -1))
+        {
+            lua_pop(L, 1);
+            return LISTENER_MASK_ALL;
+        }
+        if (!lua_istable(L, -1))
+        {
+            return luaL_error(L, "appodeal.subscribe: '%s' must be a list of names", field);
+        }
+
+        uint32_t mask = 0;
+        int n = (int) lua_objlen(L, -1);
+        for (int i = 1; i <= n; ++i)
+        {
+            lua_rawgeti(L, -1, i);
+            const char* name = lua_tostring(L, -1);
+            uint32_t bit = 0;
+            for (uint32_t j = 0; name != 0x0 && j < name_count; ++j)
+            {
+                if (strcmp(name, names[j]) == 0)
+                    bit = 1u << j;
+            }
+            lua_pop(L, 1);
+            if (bit == 0)
+            {
+                return luaL_error(L, "appodeal.subscribe: unknown name in '%s'", field);
+            }
+            mask |= bit;
+        }
+        lua_pop(L, 1);
+        return mask;
+    }
+
+    // subscribe(callback, [filter]) -> id. filter = { ad_types = {...}, events = {...} };
+    // ad_types uses "init", "interstitial" and "rewarded".
+    static int LuaSubscribe(lua_State* L)
     {
         DM_LUA_STACK_CHECK(L, 1);
 
-        PendingRewardResult result;
+        luaL_checktype(L, 1, LUA_TFUNCTION);
+        if (g_Appodeal.m_PollEvents)
+        {
+            return luaL_error(L, "appodeal.subscribe is not available in poll mode");
+        }
+
+        static const char* channel_names[] = { "init", "interstitial", "rewarded" };
+        EventListener listener;
+        listener.m_ChannelMask = LISTENER_MASK_ALL;
+        listener.m_EventMask = LISTENER_MASK_ALL;
+        if (!lua_isnoneornil(L, 2))
+        {
+            luaL_checktype(L, 2, LUA_TTABLE);
+            listener.m_ChannelMask = CheckNameMask(L, 2, "ad_types", channel_names, EVENT_CHANNEL_COUNT);
+            listener.m_EventMask = CheckNameMask(L, 2, "events", LISTENER_EVENT_NAMES, LISTENER_EVENT_COUNT);
+        }
+
+        listener.m_Callback = dmScript::CreateCallback(L, 1);
+        if (listener.m_Callback == 0x0)
+        {
+            return luaL_error(L, "appodeal.subscribe failed to create callback");
+        }
+        listener.m_Id = ++g_Appodeal.m_NextListenerId;
+        listener.m_Removed = false;
+        g_Appodeal.m_Listeners.push_back(listener);
+
+        lua_pushinteger(L, listener.m_Id);
+        return 1;
+    }
+
+    // unsubscribe(id) -> true if the listener existed.
+    static int LuaUnsubscribe(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 1);
+
+        uint32_t id = (uint32_t) luaL_checkinteger(L, 1);
+        bool found = false;
+        for (size_t i = 0; i < g_Appodeal.m_Listeners.size(); ++i)
+        {
+            EventListener& listener = g_Appodeal.m_Listeners[i];
+            if (listener.m_Id == id && listener.m_Callback != 0x0 && !listener.m_Removed)
+            {
+                listener.m_Removed = true;
+                found = true;
+                break;
+            }
+        }
+        if (found && !g_Appodeal.m_FanningOut)
+            CompactListeners();
+
+        lua_pushboolean(L, found ? 1 : 0);
+        return 1;
+    }
+
+    // set_event_mode(mode): "callback" (default) or "poll".
+    static int LuaSetEventMode(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
+
+        const char* mode = luaL_checkstring(L, 1);
+        if (strcmp(mode, "poll") == 0)
+        {
+            g_Appodeal.m_PollEvents = true;
+            DestroyCallback(&g_Appodeal.m_InitCallback);
+            DestroyCallback(&g_Appodeal.m_InterstitialCallback);
+            DestroyCallback(&g_Appodeal.m_RewardedCallback);
+            DestroyListeners();
+        }
+        else if (strcmp(mode, "callback") == 0)
+        {
+            g_Appodeal.m_PollEvents = false;
+        }
+        else
+        {
+            return luaL_error(L, "appodeal.set_event_mode expects \"callback\" or \"poll\"");
+        }
+        return 0;
+    }
+
+    // poll_events(out): moves all pending events into out[1..n], reusing the
+    // tables already stored there, and returns n. Entries past n are stale.
+    static int LuaPollEvents(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 1);
+
+        luaL_checktype(L, 1, LUA_TTABLE);
+        if (!g_Appodeal.m_PollEvents)
+        {
+            return luaL_error(L, "appodeal.poll_events requires set_event_mode(\"poll\")");
+        }
+
+        std::deque<CallbackEvent> batch;
+        {
+            std::lock_guard<std::mutex> lock(g_Appodeal.m_EventsMutex);
+            batch.swap(g_Appodeal.m_Events);
+        }
+
+        int count = 0;
+        for (size_t i = 0; i < batch.size(); ++i)
         {
-            std::lock_guard<std::mutex> lock(g_Appodeal.m_PendingRewardMutex);
-            result = g_Appodeal.m_PendingReward;
-            // Consume the result
-            g_Appodeal.m_PendingReward.m_HasResult = false;
+            const CallbackEvent& event = batch[i];
+
+            ++count;
+            lua_rawgeti(L, 1, count);
+            if (!lua_istable(L, -1))
+            {
+                lua_pop(L, 1);
+                lua_newtable(L);
+                lua_pushvalue(L, -1);
+                lua_rawseti(L, 1, count);
+            }
+            FillEventTable(L, event);
+            lua_pop(L, 1);
         }
 
-        if (!result.m_HasResult)
+        lua_pushinteger(L, count);
+        return 1;
+    }
+
+    // set_show_timeout(seconds): show watchdog window, 0 disables it.
+    static int LuaSetShowTimeout(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
+
+        double seconds = luaL_checknumber(L, 1);
+#if defined(DM_PLATFORM_ANDROID)
+        JavaSetShowTimeoutMs(seconds > 0.0 ? (int) (seconds * 1000.0) : 0);
+#else
+        (void)seconds;
+#endif
+        return 0;
+    }
+
+    static int LuaSetMainThreadBudget(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
+
+        int budget_ms = (int) luaL_checknumber(L, 1);
+#if defined(DM_PLATFORM_ANDROID)
+        JavaSetMainThreadBudgetMs(budget_ms);
+#else
+        (void)budget_ms;
+#endif
+        return 0;
+    }
+
+    // poll_rewarded_result() -> nil or a list of rewards not yet acknowledged,
+    // oldest first: {id=N, success=true, amount=N, currency="...", timestamp=ms}.
+    // Rewards are journaled in Java and survive a process restart until
+    // ack_rewards(id) is called.
+    static int LuaPollRewardedResult(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 1);
+
+#if defined(DM_PLATFORM_ANDROID)
+        std::string text = JavaDrainRewards();
+#else
+        std::string text;
+#endif
+        if (text.empty())
         {
             lua_pushnil(L);
             return 1;
         }
 
         lua_newtable(L);
-        lua_pushboolean(L, result.m_Success ? 1 : 0);
-        lua_setfield(L, -2, "success");
-        lua_pushnumber(L, result.m_Amount);
-        lua_setfield(L, -2, "amount");
-        if (!result.m_Currency.empty())
+        int count = 0;
+        size_t line_start = 0;
+        while (line_start < text.size())
         {
-            lua_pushstring(L, result.m_Currency.c_str());
-            lua_setfield(L, -2, "currency");
+            size_t line_end = text.find('\n', line_start);
+            if (line_end == std::string::npos)
+                line_end = text.size();
+            std::string line = text.substr(line_start, line_end - line_start);
+            line_start = line_end + 1;
+
+            // seq \t amount \t currency \t timestamp_ms
+            size_t tab1 = line.find('\t');
+            size_t tab2 = tab1 == std::string::npos ? tab1 : line.find('\t', tab1 + 1);
+            size_t tab3 = tab2 == std::string::npos ? tab2 : line.find('\t', tab2 + 1);
+            if (tab3 == std::string::npos)
+                continue;
+
+            lua_newtable(L);
+            lua_pushnumber(L, strtod(line.c_str(), 0x0));
+            lua_setfield(L, -2, "id");
+            lua_pushboolean(L, 1);
+            lua_setfield(L, -2, "success");
+            lua_pushnumber(L, strtod(line.c_str() + tab1 + 1, 0x0));
+            lua_setfield(L, -2, "amount");
+            if (tab3 > tab2 + 1)
+            {
+                std::string currency = line.substr(tab2 + 1, tab3 - tab2 - 1);
+                lua_pushstring(L, currency.c_str());
+                lua_setfield(L, -2, "currency");
+            }
+            lua_pushnumber(L, strtod(line.c_str() + tab3 + 1, 0x0));
+            lua_setfield(L, -2, "timestamp");
+            lua_rawseti(L, -2, ++count);
         }
 
+        if (count == 0)
+        {
+            lua_pop(L, 1);
+            lua_pushnil(L);
+        }
+        return 1;
+    }
+
+    // ack_rewards(id): marks every returned reward up to id as granted.
+    static int LuaAckRewards(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 0);
+
+        double id = luaL_checknumber(L, 1);
+#if defined(DM_PLATFORM_ANDROID)
+        JavaAcknowledgeRewards((int64_t) id);
+#else
+        (void)id;
+#endif
+        return 0;
+    }
+
+    // get_state([out]) -> table with init, initialized, consent, can_show_ads,
+    // interstitial_ready, rewarded_ready, interstitial_showing,
+    // rewarded_showing and pending_rewards. Reads the snapshot the bridge
+    // pushes on every change, so it is cheap enough to call every frame; pass
+    // the previous result as out to reuse it.
+    static int LuaGetState(lua_State* L)
+    {
+        DM_LUA_STACK_CHECK(L, 1);
+
+        if (lua_isnoneornil(L, 1))
+            lua_newtable(L);
+        else
+        {
+            luaL_checktype(L, 1, LUA_TTABLE);
+            lua_pushvalue(L, 1);
+        }
+
+        uint32_t flags;
+        uint32_t pending_rewards;
+        std::string consent;
+        {
+            std::lock_guard<std::mutex> lock(g_Appodeal.m_StateMutex);
+            flags = g_Appodeal.m_StateFlags;
+            pending_rewards = g_Appodeal.m_StatePendingRewards;
+            consent = g_Appodeal.m_StateConsent;
+        }
+
+        const char* init = "idle";
+        if (flags & STATE_INIT_DONE)
+            init = "initialized";
+        else if (flags & STATE_INIT_FAILED)
+            init = "failed";
+        else if (flags & STATE_INIT_PENDING)
+            init = "pending";
+        lua_pushstring(L, init);
+        lua_setfield(L, -2, "init");
+        lua_pushboolean(L, (flags & STATE_INIT_DONE) != 0);
+        lua_setfield(L, -2, "initialized");
+        lua_pushstring(L, consent.empty() ? "unknown" : consent.c_str());
+        lua_setfield(L, -2, "consent");
+        lua_pushboolean(L, (flags & STATE_CAN_SHOW_ADS) != 0);
+        lua_setfield(L, -2, "can_show_ads");
+        lua_pushboolean(L, (flags & STATE_INTERSTITIAL_READY) != 0);
+        lua_setfield(L, -2, "interstitial_ready");
+        lua_pushboolean(L, (flags & STATE_REWARDED_READY) != 0);
+        lua_setfield(L, -2, "rewarded_ready");
+        lua_pushboolean(L, (flags & STATE_INTERSTITIAL_SHOWING) != 0);
+        lua_setfield(L, -2, "interstitial_showing");
+        lua_pushboolean(L, (flags & STATE_REWARDED_SHOWING) != 0);
+        lua_setfield(L, -2, "rewarded_showing");
+        lua_pushnumber(L, pending_rewards);
+        lua_setfield(L, -2, "pending_rewards");
         return 1;
     }
 
@@ -819,8 +1842,24 @@ namespace
         {"show_interstitial", LuaShowInterstitial},
         {"is_rewarded_available", LuaIsRewardedAvailable},
         {"show_rewarded", LuaShowRewarded},
+        {"show_interstitial_when_ready", LuaShowInterstitialWhenReady},
+        {"show_rewarded_when_ready", LuaShowRewardedWhenReady},
         {"poll_rewarded_result", LuaPollRewardedResult},
+        {"ack_rewards", LuaAckRewards},
+        {"get_state", LuaGetState},
         {"show_consent_form", LuaShowConsentForm},
+        {"preload_consent_form", LuaPreloadConsentForm},
+        {"get_bridge_stats", LuaGetBridgeStats},
+        {"set_main_thread_budget", LuaSetMainThreadBudget},
+        {"set_show_timeout", LuaSetShowTimeout},
+        {"hint_upcoming", LuaHintUpcoming},
+        {"notify_game_ready", LuaNotifyGameReady},
+        {"set_dispatch_budget", LuaSetDispatchBudget},
+        {"set_event_filter", LuaSetEventFilter},
+        {"subscribe", LuaSubscribe},
+        {"unsubscribe", LuaUnsubscribe},
+        {"set_event_mode", LuaSetEventMode},
+        {"poll_events", LuaPollEvents},
         {0, 0}
     };
 
@@ -832,19 +1871,42 @@ namespace
 
     static dmExtension::Result AppodealAppInitialize(dmExtension::AppParams* params)
     {
-        (void)params;
+        g_Appodeal.m_AdapterPreset = dmConfigFile::GetString(params->m_ConfigFile, "appodeal.adapters", "");
         g_Appodeal.m_InitCallback = 0x0;
         g_Appodeal.m_InterstitialCallback = 0x0;
         g_Appodeal.m_RewardedCallback = 0x0;
-        g_Appodeal.m_PendingReward.m_HasResult = false;
-        g_Appodeal.m_PendingReward.m_Success = false;
-        g_Appodeal.m_PendingReward.m_Amount = 0.0;
+        g_Appodeal.m_PollEvents = false;
+        g_Appodeal.m_NextListenerId = 0;
+        g_Appodeal.m_FanningOut = false;
+        g_Appodeal.m_DispatchBudgetMs = DEFAULT_DISPATCH_BUDGET_MS;
+        g_Appodeal.m_DispatchMaxEvents = 0;
+        g_Appodeal.m_DispatchCarriedOver = 0;
+        g_Appodeal.m_DispatchOverBudgetFrames = 0;
+        g_Appodeal.m_DispatchMaxFrameMs = 0.0;
+        g_Appodeal.m_DispatchMaxLatencyMs = 0.0;
+        g_Appodeal.m_StateVersion = 0;
+        g_Appodeal.m_StateFlags = 0;
+        g_Appodeal.m_StatePendingRewards = 0;
+        g_Appodeal.m_StateConsent.clear();
+
+#if defined(DM_PLATFORM_ANDROID)
+        g_Appodeal.m_Jni.m_Attached.store(true);
+        // Pay class loading and method lookup here instead of on the first Lua call.
+        JniEnvScope env_scope;
+        if (!env_scope.Attach() || !EnsureJniReady(env_scope.m_Env))
+        {
+            dmLogWarning("JNI setup deferred to first use");
+        }
+#endif
         return dmExtension::RESULT_OK;
     }
 
     static dmExtension::Result AppodealAppFinalize(dmExtension::AppParams* params)
     {
         (void)params;
+#if defined(DM_PLATFORM_ANDROID)
+        DetachNatives();
+#endif
         return dmExtension::RESULT_OK;
     }
 
@@ -857,7 +1919,8 @@ namespace
     static dmExtension::Result AppodealUpdate(dmExtension::Params* params)
     {
         (void)params;
-        FlushEvents();
+        if (!g_Appodeal.m_PollEvents)
+            FlushEvents();
         return dmExtension::RESULT_OK;
     }
 
@@ -873,18 +1936,7 @@ namespace
         DestroyCallback(&g_Appodeal.m_InitCallback);
         DestroyCallback(&g_Appodeal.m_InterstitialCallback);
         DestroyCallback(&g_Appodeal.m_RewardedCallback);
-
-#if defined(DM_PLATFORM_ANDROID)
-        if (g_Appodeal.m_Jni.m_Class != 0x0)
-        {
-            JniEnvScope env_scope;
-            if (env_scope.Attach())
-            {
-                env_scope.m_Env->DeleteGlobalRef(g_Appodeal.m_Jni.m_Class);
-            }
-            g_Appodeal.m_Jni.m_Class = 0x0;
-        }
-#endif
+        DestroyListeners();
         return dmExtension::RESULT_OK;
     }
 
@@ -0,0 +1,317 @@
+package com.defold.appodeal;
+
+import android.content.Context;
+import android.content.pm.ComponentInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.AssetManager;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Adapter presets. The adapter list and the presets are defined once in
+ * {@code tools/adapter_presets.json}; the preset app manifests, the adapter
+ * block of build.gradle, the adapter proguard rules and the table below are
+ * generated from it by {@code tools/gen_adapter_presets.py}.
+ *
+ * <p>The build keeps the adapters of the app manifest the game selected, so
+ * the startup probe detects the preset from the adapter classes present;
+ * {@code appodeal.adapters} in game.project is optional and only checked
+ * against the detected one. The probe also reports what the excluded
+ * adapters' jars leave behind: {@code apd_adapters} assets and manifest
+ * components whose classes are gone.
+ */
+final class AdapterPresets {
+    private static final String TAG = "DefoldAppodeal";
+    private static final String ASSET_DIR = "apd_adapters";
+    /** Detected when the adapters present match no preset. */
+    static final String CUSTOM = "custom";
+
+    // BEGIN adapter table (generated by tools/gen_adapter_presets.py, do not edit)
+    /** {id, network builder class, package prefixes separated by ','}. */
+    private static final String[][] ADAPTERS = new String[][] {
+        { "bidmachine", "com.appodeal.ads.adapters.bidmachine.BidMachineNetwork$builder", "com.appodeal.ads.adapters.bidmachine,io.bidmachine" },
+        { "applovin", "com.appodeal.ads.adapters.applovin.ApplovinNetwork$builder", "com.appodeal.ads.adapters.applovin,com.applovin" },
+        { "ironsource", "com.appodeal.ads.adapters.ironsource.IronSourceNetwork$builder", "com.appodeal.ads.adapters.ironsource,com.ironsource,com.unity3d.mediation" },
+        { "mintegral", "com.appodeal.ads.adapters.mintegral.MintegralNetwork$builder", "com.appodeal.ads.adapters.mintegral,com.mbridge.msdk" },
+        { "unity_ads", "com.appodeal.ads.adapters.unityads.UnityAdsNetwork$builder", "com.appodeal.ads.adapters.unityads,com.unity3d.ads,com.unity3d.services" },
+        { "vungle", "com.appodeal.ads.adapters.vungle.VungleNetwork$builder", "com.appodeal.ads.adapters.vungle,com.vungle" },
+        { "dt_exchange", "com.appodeal.ads.adapters.dtexchange.DTExchangeNetwork$builder", "com.appodeal.ads.adapters.dtexchange,com.fyber" },
+        { "amazon", "com.appodeal.ads.adapters.amazon.AmazonNetwork$builder", "com.appodeal.ads.adapters.amazon,com.amazon.device.ads" },
+        { "bigo_ads", "com.appodeal.ads.adapters.bigoads.BigoAdsNetwork$builder", "com.appodeal.ads.adapters.bigoads,sg.bigo.ads" },
+        { "inmobi", "com.appodeal.ads.adapters.inmobi.InmobiNetwork$builder", "com.appodeal.ads.adapters.inmobi,com.inmobi" },
+        { "my_target", "com.appodeal.ads.adapters.mytarget.MyTargetNetwork$builder", "com.appodeal.ads.adapters.mytarget,com.my.target" },
+        { "yandex", "com.appodeal.ads.adapters.yandex.YandexNetwork$builder", "com.appodeal.ads.adapters.yandex,com.yandex.mobile.ads" },
+    };
+    /** Preset names, smallest first. */
+    private static final String[] PRESET_NAMES = new String[] { "minimal", "standard", "full" };
+    /** Adapter ids each preset keeps, indexed like {@link #PRESET_NAMES}. */
+    private static final String[][] PRESET_ADAPTERS = new String[][] {
+        { "bidmachine", "applovin" },
+        { "bidmachine", "applovin", "ironsource", "mintegral", "unity_ads", "vungle", "dt_exchange" },
+        { "bidmachine", "applovin", "ironsource", "mintegral", "unity_ads", "vungle", "dt_exchange", "amazon", "bigo_ads", "inmobi", "my_target", "yandex" },
+    };
+    // END adapter table
+
+    /** appodeal.adapters from game.project; empty when not set. */
+    private static volatile String sConfigured = "";
+    private static volatile String sDetected = "";
+    private static volatile boolean sMismatch = false;
+    private static volatile String sPresent = "";
+    private static volatile String sMissing = "";
+    private static volatile String sStaleAssets = "";
+    private static volatile String sOrphanComponents = "";
+
+    private AdapterPresets() {
+    }
+
+    /** Records appodeal.adapters; unknown names are logged and treated as not set. */
+    static void select(String preset) {
+        if (preset == null || preset.isEmpty()) {
+            sConfigured = "";
+        } else if (presetIndex(preset) >= 0) {
+            sConfigured = preset;
+        } else {
+            Log.w(TAG, "unknown adapter preset '" + preset + "', detecting it from the build");
+            sConfigured = "";
+        }
+    }
+
+    /**
+     * Detects the preset from the adapter classes present, logs a mismatch
+     * with appodeal.adapters, and reports leftovers of excluded adapters.
+     */
+    static void probe(Context context) {
+        boolean[] present = new boolean[ADAPTERS.length];
+        for (int i = 0; i < ADAPTERS.length; i++) {
+            try {
+                Class.forName(ADAPTERS[i][1]);
+                present[i] = true;
+            } catch (Throwable ignored) {
+                present[i] = false;
+            }
+        }
+        sPresent = join(present, true);
+        String detected = detect(present);
+        sDetected = detected;
+
+        String configured = sConfigured;
+        sMismatch = !configured.isEmpty() && !configured.equals(detected);
+        if (sMismatch) {
+            Log.w(TAG, "adapter preset mismatch: appodeal.adapters=" + configured + " but the build contains "
+                + detected + "; use adapter_presets/" + configured + ".appmanifest as the app manifest");
+        }
+        Log.i(TAG, "adapter preset: " + detected + " (adapters: " + sPresent + ")");
+
+        // Adapters the game asked for but the build does not contain.
+        StringBuilder missing = new StringBuilder();
+        String expected = configured.isEmpty() ? detected : configured;
+        int index = presetIndex(expected);
+        if (index >= 0) {
+            for (String id : PRESET_ADAPTERS[index]) {
+                int adapter = adapterIndex(id);
+                if (adapter >= 0 && !present[adapter]) {
+                    Log.w(TAG, "adapter missing: " + id);
+                    append(missing, id);
+                }
+            }
+        }
+        sMissing = missing.toString();
+
+        if (context != null) {
+            probeAssets(context.getAssets(), present);
+            probeComponents(context, present);
+        }
+    }
+
+    /**
+     * The SDK discovers adapters from apd_adapters assets. An excluded
+     * adapter's asset still ships with its AAR; it is reported so a preset
+     * build can be checked, the SDK skips adapters whose classes are absent.
+     */
+    private static void probeAssets(AssetManager assets, boolean[] present) {
+        StringBuilder stale = new StringBuilder();
+        try {
+            String[] files = assets != null ? assets.list(ASSET_DIR) : null;
+            if (files == null || files.length == 0) {
+                Log.w(TAG, "adapter assets missing: " + ASSET_DIR);
+                sStaleAssets = "";
+                return;
+            }
+
+            for (String file : files) {
+                int adapter = adapterForAsset(file);
+                if (adapter >= 0 && !present[adapter]) {
+                    Log.w(TAG, "adapter asset without classes: " + ASSET_DIR + "/" + file
+                        + " (" + ADAPTERS[adapter][0] + " is excluded)");
+                    append(stale, file);
+                    continue;
+                }
+                Log.i(TAG, "adapter asset found: " + ASSET_DIR + "/" + file);
+                logAssetFirstLine(assets, ASSET_DIR + "/" + file);
+            }
+        } catch (Throwable throwable) {
+            Log.w(TAG, "adapter assets probe failed: " + throwable.getClass().getSimpleName());
+        }
+        sStaleAssets = stale.toString();
+    }
+
+    /**
+     * Activities, services and receivers merged from an excluded adapter's
+     * AAR manifest crash with ClassNotFoundException when started. Providers
+     * would already have crashed the process before this runs; the build-time
+     * check in gen_adapter_presets.py --verify-apk catches those.
+     */
+    private static void probeComponents(Context context, boolean[] present) {
+        StringBuilder orphans = new StringBuilder();
+        try {
+            PackageManager manager = context.getPackageManager();
+            PackageInfo info = manager.getPackageInfo(context.getPackageName(),
+                PackageManager.GET_ACTIVITIES | PackageManager.GET_SERVICES
+                    | PackageManager.GET_RECEIVERS | PackageManager.GET_PROVIDERS);
+            checkComponents(info.activities, present, orphans);
+            checkComponents(info.services, present, orphans);
+            checkComponents(info.receivers, present, orphans);
+            checkComponents(info.providers, present, orphans);
+        } catch (Throwable throwable) {
+            Log.w(TAG, "adapter components probe failed: " + throwable.getClass().getSimpleName());
+        }
+        sOrphanComponents = orphans.toString();
+    }
+
+    private static void checkComponents(ComponentInfo[] components, boolean[] present, StringBuilder orphans) {
+        if (components == null) {
+            return;
+        }
+        for (ComponentInfo component : components) {
+            int adapter = adapterForClass(component.name);
+            if (adapter < 0 || present[adapter]) {
+                continue;
+            }
+            Log.e(TAG, "adapter component without classes: " + component.name
+                + " (" + ADAPTERS[adapter][0] + " is excluded)");
+            append(orphans, component.name);
+        }
+    }
+
+    /** Smallest preset whose adapters are exactly the ones present, or {@link #CUSTOM}. */
+    private static String detect(boolean[] present) {
+        for (int p = 0; p < PRESET_NAMES.length; p++) {
+            boolean[] expected = new boolean[ADAPTERS.length];
+            for (String id : PRESET_ADAPTERS[p]) {
+                int adapter = adapterIndex(id);
+                if (adapter >= 0) {
+                    expected[adapter] = true;
+                }
+            }
+            if (Arrays.equals(expected, present)) {
+                return PRESET_NAMES[p];
+            }
+        }
+        return CUSTOM;
+    }
+
+    private static int presetIndex(String name) {
+        for (int i = 0; i < PRESET_NAMES.length; i++) {
+            if (PRESET_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int adapterIndex(String id) {
+        for (int i = 0; i < ADAPTERS.length; i++) {
+            if (ADAPTERS[i][0].equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int adapterForClass(String className) {
+        if (className == null) {
+            return -1;
+        }
+        for (int i = 0; i < ADAPTERS.length; i++) {
+            for (String prefix : ADAPTERS[i][2].split(",")) {
+                if (className.startsWith(prefix + ".")) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Asset names carry the adapter id, with or without separators. */
+    private static int adapterForAsset(String file) {
+        String name = file.toLowerCase(Locale.US).replace("_", "").replace("-", "");
+        for (int i = 0; i < ADAPTERS.length; i++) {
+            if (name.startsWith(ADAPTERS[i][0].replace("_", ""))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String join(boolean[] present, boolean value) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < ADAPTERS.length; i++) {
+            if (present[i] == value) {
+                append(out, ADAPTERS[i][0]);
+            }
+        }
+        return out.toString();
+    }
+
+    private static void append(StringBuilder out, String value) {
+        if (out.length() > 0) {
+            out.append(',');
+        }
+        out.append(value);
+    }
+
+    private static void logAssetFirstLine(AssetManager assets, String path) {
+        InputStream stream = null;
+        BufferedReader reader = null;
+        try {
+            stream = assets.open(path);
+            reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            String firstLine = reader.readLine();
+            if (firstLine != null) {
+                Log.i(TAG, "adapter asset payload: " + firstLine);
+            }
+        } catch (Throwable ignored) {
+        } finally {
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+            } catch (Throwable ignored) {
+            }
+            try {
+                if (stream != null) {
+                    stream.close();
+                }
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
+    static void appendStats(StringBuilder out) {
+        out.append("adapters")
+            .append("\tpreset=").append(sDetected)
+            .append("\tconfigured=").append(sConfigured)
+            .append("\tmismatch=").append(sMismatch ? 1 : 0)
+            .append("\tpresent=").append(sPresent)
+            .append("\tmissing=").append(sMissing)
+            .append("\tstale_assets=").append(sStaleAssets)
+            .append("\torphan_components=").append(sOrphanComponents)
+            .append('\n');
+    }
+}
@@ -1,18 +1,17 @@
 package com.defold.appodeal;
 
 import android.app.Activity;
+import android.app.Application;
 import android.content.Context;
-import android.content.res.AssetManager;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.SystemClock;
 import android.util.Log;
+import android.view.ViewTreeObserver;
 import com.appodeal.ads.Appodeal;
 import com.appodeal.ads.InterstitialCallbacks;
 import com.appodeal.ads.RewardedVideoCallbacks;
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
@@ -20,11 +19,12 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Proxy;
+import java.lang.ref.WeakReference;
 import java.util.List;
 import java.util.Map;
 import java.util.Locale;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class AppodealBridge {
     private static final String TAG = "DefoldAppodeal";
@@ -32,11 +32,8 @@ public final class AppodealBridge {
     private static final int INIT_RETRY_DELAY_MS = 100;
     private static final int INIT_RETRY_MAX_ATTEMPTS = 50;
     private static final int CONSENT_UPDATE_TIMEOUT_MS = 5000;
-    private static final int CONSENT_FORM_RETRY_DELAY_MS = 350;
-    private static final int CONSENT_FORM_MAX_ATTEMPTS = 30;
-    private static final int CONSENT_NO_CALLBACK_TIMEOUT_MS = 5000;
-    private static final int CONSENT_MIN_ACTIVITY_STABLE_MS = 350;
     private static final int CACHE_RETRY_DELAY_MS = 3000;
+    private static final int SHOW_WAIT_MAX_TIMEOUT_MS = 60000;
     /**
      * Delay before calling Appodeal.show() to give Defold engine's render
      * thread time to handle onPause and release its Surface/BLASTBufferQueue.
@@ -44,94 +41,263 @@ public final class AppodealBridge {
      * the game window for the ad Activity, causing SIGSEGV.
      */
     private static final int SHOW_DELAY_MS = 250;
+    /** Default window for shown / show_failed after Appodeal.show(); see setShowTimeoutMs. */
+    private static final int DEFAULT_SHOW_TIMEOUT_MS = 10000;
+    private static volatile int sShowTimeoutMs = DEFAULT_SHOW_TIMEOUT_MS;
     private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
     private static final AtomicBoolean sCallbacksConfigured = new AtomicBoolean(false);
     private static final AtomicBoolean sInitCallbackSent = new AtomicBoolean(false);
     private static final AtomicBoolean sConsentApiLogged = new AtomicBoolean(false);
-    private static final AtomicBoolean sConsentInfoUpdated = new AtomicBoolean(false);
-    private static final AtomicBoolean sConsentUpdateFinished = new AtomicBoolean(false);
-    private static final AtomicBoolean sConsentUpdateInFlight = new AtomicBoolean(false);
     private static final AtomicBoolean sAdaptersProbeLogged = new AtomicBoolean(false);
+    private static final AtomicBoolean sLifecycleObserverRegistered = new AtomicBoolean(false);
     private static volatile String sLastAppKey = null;
-    private static volatile boolean sRewardedShownFired = false;
-    private static volatile boolean sRewardedFinishedFired = false;
+    /** Configuration of the initialize pipeline in flight, and of the last one that succeeded. */
+    private static String sInitPendingConfig = null;
+    private static String sInitDoneConfig = null;
+    private static final Object INIT_LOCK = new Object();
+    /** Bumped by every full pipeline; completions of older ones are ignored. */
+    private static int sInitGeneration = 0;
+    private static long sInitFull = 0L;
+    private static long sInitCached = 0L;
+    private static long sInitJoined = 0L;
+    private static long sInitSuperseded = 0L;
     private static volatile boolean sTestMode = false;
-    private static volatile long sInitStartedAtMs = 0L;
-    private static volatile long sConsentRequestStartedAtMs = 0L;
-    private static final AtomicBoolean sShowConsentRequested = new AtomicBoolean(false);
-    private static final AtomicBoolean sConsentFormInFlight = new AtomicBoolean(false);
-    private static final AtomicInteger sConsentAttemptGeneration = new AtomicInteger(0);
+    /** Activity waiting in show_*_when_ready for a fill, per ad type. Written on the main thread only. */
+    private static volatile Activity sInterstitialShowWaiter = null;
+    private static volatile Activity sRewardedShowWaiter = null;
+    /** Bumped per wait of that type, so a replaced wait's timeout does nothing. Main thread only. */
+    private static int sInterstitialShowWaitGeneration = 0;
+    private static int sRewardedShowWaitGeneration = 0;
+    /** Consent form object loaded by preload_consent_form(). Main thread only. */
+    private static Object sPreloadedConsentForm = null;
+    /** Cookie of the async trace section for the latest consent info update. */
+    private static volatile int sConsentUpdateTraceCookie = 0;
+    /** Consent as last read from ConsentManager; see {@link #refreshConsent}. */
+    private static volatile ConsentReading sConsent = ConsentReading.NONE;
+    private static final AtomicLong sConsentRefreshes = new AtomicLong(0L);
+    /** Game activity whose focus/lifecycle feeds {@link #CONSENT}. Main thread only. */
+    private static WeakReference<Activity> sObservedActivity = new WeakReference<Activity>(null);
+    /** Consent flow state. Main thread only. */
+    private static final ConsentStateMachine CONSENT = new ConsentStateMachine(new ConsentStateMachine.Effects() {
+        @Override
+        public void requestConsentInfoUpdate() {
+            AppodealBridge.requestConsentInfoUpdate(getActivity(), sLastAppKey);
+        }
+
+        @Override
+        public boolean isConsentStatusKnown() {
+            return AppodealBridge.isConsentStatusKnown();
+        }
+
+        @Override
+        public boolean showForm(int requestId) {
+            Activity activity = getActivity();
+            return activity != null && invokeConsentFormNow(activity, requestId);
+        }
+
+        @Override
+        public boolean loadForm(int preloadId) {
+            Activity activity = getActivity();
+            return activity != null && invokeConsentFormLoad(activity, preloadId);
+        }
+
+        @Override
+        public boolean showPreloadedForm(int requestId) {
+            Activity activity = getActivity();
+            return activity != null && invokePreloadedConsentFormShow(activity, requestId);
+        }
+
+        @Override
+        public void discardPreloadedForm() {
+            sPreloadedConsentForm = null;
+        }
+
+        @Override
+        public String currentConsentStatus() {
+            Object status = sConsent.status;
+            return status != null ? String.valueOf(status) : null;
+        }
+
+        @Override
+        public void postDelayed(String name, Runnable task, long delayMs) {
+            postDelayedOnMainThread(name, task, delayMs);
+        }
+
+        @Override
+        public void log(String message) {
+            Log.i(TAG, message);
+        }
+    });
 
     private AppodealBridge() {
     }
 
-    public static boolean initialize(final String appKey, final boolean testing, final String logLevel) {
+    public static boolean initialize(
+        final String appKey,
+        final boolean testing,
+        final String logLevel,
+        final String adapterPreset
+    ) {
         Log.i(TAG, "initialize called");
         if (appKey == null || appKey.trim().isEmpty()) {
             Log.e(TAG, "initialize failed: app_key_is_empty");
             return false;
         }
 
+        // A repeated init (second call site, Lua hot reload) with the same
+        // configuration is answered from the finished or running pipeline.
+        String config = appKey + '|' + testing + '|' + logLevel + '|' + adapterPreset + '|' + AD_TYPES;
+        final int generation;
+        synchronized (INIT_LOCK) {
+            if (config.equals(sInitDoneConfig)) {
+                sInitCached++;
+                Log.i(TAG, "initialize: already initialized with this configuration");
+                nativeOnInit(true, null, SystemClock.elapsedRealtimeNanos());
+                return true;
+            }
+            if (config.equals(sInitPendingConfig)) {
+                sInitJoined++;
+                Log.i(TAG, "initialize: same configuration already in progress");
+                return true;
+            }
+            sInitPendingConfig = config;
+            sInitDoneConfig = null;
+            sInitFull++;
+            generation = ++sInitGeneration;
+            sInitCallbackSent.set(false);
+        }
+        BridgeState.onInitStarted();
+
+        AdapterPresets.select(adapterPreset);
         sLastAppKey = appKey;
-        sInitStartedAtMs = SystemClock.elapsedRealtime();
-        sConsentInfoUpdated.set(false);
-        sConsentUpdateFinished.set(false);
-        sConsentUpdateInFlight.set(false);
-        sShowConsentRequested.set(false);
-        sConsentFormInFlight.set(false);
-        sConsentRequestStartedAtMs = 0L;
-        sConsentAttemptGeneration.incrementAndGet();
-        sInitCallbackSent.set(false);
-        scheduleInitialize(appKey, testing, logLevel, 0);
+        scheduleInitialize(appKey, testing, logLevel, 0, generation);
         return true;
     }
 
+    private static boolean isCurrentInit(int generation) {
+        synchronized (INIT_LOCK) {
+            return generation == sInitGeneration;
+        }
+    }
+
     private static void scheduleInitialize(
         final String appKey,
         final boolean testing,
         final String logLevel,
-        final int attempt
+        final int attempt,
+        final int generation
     ) {
-        runOnMainThread(new Runnable() {
+        runOnMainThread("scheduleInitialize", new Runnable() {
             @Override
             public void run() {
+                // A later init with another configuration owns the pipeline now.
+                if (!isCurrentInit(generation)) {
+                    return;
+                }
+
                 final Activity activity = getActivity();
                 if (activity == null) {
                     if (attempt < INIT_RETRY_MAX_ATTEMPTS) {
-                        MAIN_HANDLER.postDelayed(new Runnable() {
+                        postDelayedOnMainThread("initializeRetry", new Runnable() {
                             @Override
                             public void run() {
-                                scheduleInitialize(appKey, testing, logLevel, attempt + 1);
+                                scheduleInitialize(appKey, testing, logLevel, attempt + 1, generation);
                             }
                         }, INIT_RETRY_DELAY_MS);
                     } else {
                         Log.e(TAG, "initialize failed: activity_is_null");
-                        notifyInitOnce(false, "activity_is_null");
+                        notifyInitOnce(generation, false, "activity_is_null");
                     }
                     return;
                 }
 
                 try {
-                    configureCallbacks();
-                    applyLogLevel(logLevel);
-                    Appodeal.setTesting(testing);
-                    sTestMode = testing;
-                    configureAutoCache();
-                    logAdapterProbeOnce(activity);
-                    performInitializeCall(activity, appKey);
+                    BridgeTrace.begin("init.configure");
+                    try {
+                        configureCallbacks();
+                        applyLogLevel(logLevel);
+                        Appodeal.setTesting(testing);
+                        sTestMode = testing;
+                        DeviceProfile.detect(activity.getApplicationContext());
+                        configureAutoCache();
+                    } finally {
+                        BridgeTrace.end();
+                    }
+
+                    BridgeTrace.begin("init.monitors");
+                    try {
+                        NetworkMonitor.start(activity.getApplicationContext());
+                        MemoryPressureMonitor.start(activity.getApplicationContext());
+                        RewardJournal.open(activity.getApplicationContext());
+                    } finally {
+                        BridgeTrace.end();
+                    }
+
+                    BridgeTrace.begin("init.adapterProbe");
+                    try {
+                        logAdapterProbeOnce(activity);
+                    } finally {
+                        BridgeTrace.end();
+                    }
+
+                    BridgeTrace.begin("init.applyPersistedConsent");
+                    try {
+                        applyPersistedConsent(activity, appKey);
+                    } finally {
+                        BridgeTrace.end();
+                    }
+
+                    performInitializeCall(activity, appKey, generation);
+
                     // Consent info refresh should never block SDK initialization.
-                    requestConsentInfoUpdate(activity, appKey, null);
+                    BridgeTrace.begin("init.consent");
+                    try {
+                        observeActivity(activity);
+                        CONSENT.onInitialize(activity.hasWindowFocus());
+                    } finally {
+                        BridgeTrace.end();
+                    }
                 } catch (Throwable throwable) {
                     Log.e(TAG, "initialize failed with exception", throwable);
-                    notifyInitOnce(false, throwable.getClass().getSimpleName() + ":" + throwable.getMessage());
+                    notifyInitOnce(generation, false, throwable.getClass().getSimpleName() + ":" + throwable.getMessage());
                 }
             }
         });
     }
 
-    private static void notifyInitOnce(boolean success, String reason) {
-        if (sInitCallbackSent.compareAndSet(false, true)) {
-            nativeOnInit(success, reason);
+    private static void notifyInitOnce(int generation, boolean success, String reason) {
+        synchronized (INIT_LOCK) {
+            // The result belongs to a configuration a later init replaced.
+            if (generation != sInitGeneration) {
+                sInitSuperseded++;
+                Log.i(TAG, "initialize result ignored: superseded by a later init, success=" + success);
+                return;
+            }
+            if (!sInitCallbackSent.compareAndSet(false, true)) {
+                return;
+            }
+            // A failed configuration is retried in full by the next init call.
+            sInitDoneConfig = success ? sInitPendingConfig : null;
+            sInitPendingConfig = null;
+        }
+
+        if (success) {
+            // The SDK may resolve consent itself during initialization.
+            refreshConsent("initialized");
+        }
+        BridgeState.onInitFinished(success);
+        nativeOnInit(success, reason, SystemClock.elapsedRealtimeNanos());
+    }
+
+    private static void appendInitStats(StringBuilder out) {
+        synchronized (INIT_LOCK) {
+            out.append("init")
+                .append("\tstate=").append(sInitDoneConfig != null ? "initialized" : sInitPendingConfig != null ? "pending" : "idle")
+                .append("\tfull=").append(sInitFull)
+                .append("\tcached=").append(sInitCached)
+                .append("\tjoined=").append(sInitJoined)
+                .append("\tsuperseded=").append(sInitSuperseded)
+                .append('\n');
         }
     }
 
@@ -145,21 +311,22 @@ public final class AppodealBridge {
 
     public static boolean showInterstitial() {
         Log.i(TAG, "showInterstitial called");
+        ShowSessions.begin(Appodeal.INTERSTITIAL);
         final Activity activity = getActivity();
         if (activity == null) {
             Log.e(TAG, "showInterstitial: activity_is_null");
-            nativeOnInterstitialEvent("show_failed", false, "activity_is_null");
+            sendInterstitialEvent("show_failed", false, "activity_is_null");
             return false;
         }
 
-        runOnUiThread(activity, new Runnable() {
+        runOnUiThread(activity, "showInterstitial", new Runnable() {
             @Override
             public void run() {
                 try {
                     attemptShowInterstitial(activity);
                 } catch (Throwable throwable) {
                     Log.e(TAG, "showInterstitial failed with exception", throwable);
-                    nativeOnInterstitialEvent(
+                    sendInterstitialEvent(
                         "show_failed",
                         false,
                         throwable.getClass().getSimpleName() + ":" + throwable.getMessage()
@@ -181,21 +348,22 @@ public final class AppodealBridge {
 
     public static boolean showRewarded() {
         Log.i(TAG, "showRewarded called");
+        ShowSessions.begin(Appodeal.REWARDED_VIDEO);
         final Activity activity = getActivity();
         if (activity == null) {
             Log.e(TAG, "showRewarded: activity_is_null");
-            nativeOnRewardedEvent("show_failed", false, "activity_is_null", false, 0.0d, null);
+            sendRewardedEvent("show_failed", false, "activity_is_null", false, 0.0d, null);
             return false;
         }
 
-        runOnUiThread(activity, new Runnable() {
+        runOnUiThread(activity, "showRewarded", new Runnable() {
             @Override
             public void run() {
                 try {
                     attemptShowRewarded(activity);
                 } catch (Throwable throwable) {
                     Log.e(TAG, "showRewarded failed with exception", throwable);
-                    nativeOnRewardedEvent(
+                    sendRewardedEvent(
                         "show_failed",
                         false,
                         throwable.getClass().getSimpleName() + ":" + throwable.getMessage(),
@@ -210,226 +378,361 @@ public final class AppodealBridge {
         return true;
     }
 
-    public static boolean showConsentForm() {
-        Log.i(TAG, "showConsentForm called");
-        sShowConsentRequested.set(true);
+    /**
+     * Shows the interstitial as soon as one is loaded, or reports
+     * {@code load_timeout} if none loads within {@code timeoutMs}.
+     */
+    public static boolean showInterstitialWhenReady(final int timeoutMs) {
+        return showWhenReady(Appodeal.INTERSTITIAL, timeoutMs);
+    }
+
+    /**
+     * Shows the rewarded video as soon as one is loaded, or reports
+     * {@code load_timeout} if none loads within {@code timeoutMs}.
+     */
+    public static boolean showRewardedWhenReady(final int timeoutMs) {
+        return showWhenReady(Appodeal.REWARDED_VIDEO, timeoutMs);
+    }
 
+    private static boolean showWhenReady(final int adType, final int timeoutMs) {
+        final String label = adTypeLabel(adType);
+        Log.i(TAG, "show " + label + " when ready called, timeoutMs=" + timeoutMs);
+        ShowSessions.begin(adType);
         final Activity activity = getActivity();
         if (activity == null) {
-            Log.e(TAG, "showConsentForm: activity_is_null");
+            Log.e(TAG, "show " + label + " when ready: activity_is_null");
+            notifyAdEvent(adType, "show_failed", false, "activity_is_null");
             return false;
         }
 
-        final int generation = sConsentAttemptGeneration.incrementAndGet();
-        scheduleConsentFormAttempt(activity, 0, generation);
+        runOnUiThread(activity, "showWhenReady", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (Appodeal.canShow(adType)) {
+                        attemptShow(adType, activity);
+                        return;
+                    }
+
+                    // Replace any earlier wait for this type; its timeout is invalidated below.
+                    setShowWaiter(adType, activity);
+                    final int generation = nextShowWaitGeneration(adType);
+                    Log.i(TAG, "show " + label + " when ready: waiting for load");
+                    notifyAdEvent(adType, "waiting", true, null);
+                    // Cache the awaited type now; warmups for other types are held back while waiting.
+                    invokeCacheForType(adType);
+
+                    int waitMs = Math.max(0, Math.min(timeoutMs, SHOW_WAIT_MAX_TIMEOUT_MS));
+                    postDelayedOnMainThread("showWhenReadyTimeout", new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != showWaitGeneration(adType) || getShowWaiter(adType) == null) {
+                                return;
+                            }
+                            setShowWaiter(adType, null);
+                            Log.w(TAG, "show " + label + " when ready: load_timeout");
+                            notifyAdEvent(adType, "load_timeout", false, "not_loaded_before_deadline");
+                            scheduleCacheWarmup(label + "_load_timeout");
+                        }
+                    }, waitMs);
+                } catch (Throwable throwable) {
+                    Log.e(TAG, "show " + label + " when ready failed with exception", throwable);
+                    setShowWaiter(adType, null);
+                    notifyAdEvent(adType, "show_failed", false, throwable.getClass().getSimpleName() + ":" + throwable.getMessage());
+                }
+            }
+        });
 
         return true;
     }
 
-    private static void scheduleConsentFormAttempt(final Activity activity, final int attempt, final int generation) {
-        runOnUiThread(activity, new Runnable() {
+    /** Called from the SDK loaded callbacks: completes a pending show_*_when_ready. */
+    private static void onAdLoadedForWaiter(final int adType) {
+        runOnMainThread("showWhenReadyLoaded", new Runnable() {
             @Override
             public void run() {
-                if (generation != sConsentAttemptGeneration.get()) {
+                Activity waiter = getShowWaiter(adType);
+                if (waiter == null) {
                     return;
                 }
+                setShowWaiter(adType, null);
+                Log.i(TAG, "show " + adTypeLabel(adType) + " when ready: loaded, showing");
+                attemptShow(adType, waiter);
+            }
+        });
+    }
 
-                if (!sShowConsentRequested.get()) {
-                    return;
-                }
+    private static Activity getShowWaiter(int adType) {
+        return adType == Appodeal.REWARDED_VIDEO ? sRewardedShowWaiter : sInterstitialShowWaiter;
+    }
 
-                if (activity.isFinishing() || activity.isDestroyed()) {
-                    Log.w(TAG, "showConsentForm aborted: activity_gone");
-                    sShowConsentRequested.set(false);
-                    sConsentFormInFlight.set(false);
-                    return;
-                }
+    private static void setShowWaiter(int adType, Activity activity) {
+        if (adType == Appodeal.REWARDED_VIDEO) {
+            sRewardedShowWaiter = activity;
+        } else {
+            sInterstitialShowWaiter = activity;
+        }
+    }
 
-                if (!activity.hasWindowFocus()) {
-                    if (sConsentFormInFlight.get()) {
-                        if (attempt == 0 || attempt % 8 == 0) {
-                            Log.i(TAG, "showConsentForm pending: activity lost focus while form in flight");
-                        }
-                        MAIN_HANDLER.postDelayed(new Runnable() {
-                            @Override
-                            public void run() {
-                                scheduleConsentFormAttempt(activity, attempt, generation);
-                            }
-                        }, CONSENT_FORM_RETRY_DELAY_MS);
-                        return;
-                    }
+    private static int showWaitGeneration(int adType) {
+        return adType == Appodeal.REWARDED_VIDEO ? sRewardedShowWaitGeneration : sInterstitialShowWaitGeneration;
+    }
 
-                    if (attempt == 0 || attempt % 4 == 0) {
-                        Log.i(TAG, "showConsentForm wait: activity has no window focus, attempt=" + attempt);
-                    }
-                    if (attempt >= CONSENT_FORM_MAX_ATTEMPTS) {
-                        Log.w(TAG, "showConsentForm give up: no activity focus");
-                        sShowConsentRequested.set(false);
-                        sConsentFormInFlight.set(false);
-                        return;
-                    }
-                    MAIN_HANDLER.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            scheduleConsentFormAttempt(activity, attempt + 1, generation);
-                        }
-                    }, CONSENT_FORM_RETRY_DELAY_MS);
-                    return;
-                }
+    private static int nextShowWaitGeneration(int adType) {
+        if (adType == Appodeal.REWARDED_VIDEO) {
+            return ++sRewardedShowWaitGeneration;
+        }
+        return ++sInterstitialShowWaitGeneration;
+    }
 
-                if (sInitStartedAtMs > 0L) {
-                    long sinceInitMs = SystemClock.elapsedRealtime() - sInitStartedAtMs;
-                    if (sinceInitMs < CONSENT_MIN_ACTIVITY_STABLE_MS) {
-                        if (attempt == 0) {
-                            Log.i(TAG, "showConsentForm wait: startup stabilization " + sinceInitMs + "ms");
-                        }
-                        MAIN_HANDLER.postDelayed(new Runnable() {
-                            @Override
-                            public void run() {
-                                scheduleConsentFormAttempt(activity, attempt + 1, generation);
-                            }
-                        }, CONSENT_FORM_RETRY_DELAY_MS);
-                        return;
-                    }
-                }
+    private static void attemptShow(int adType, Activity activity) {
+        if (adType == Appodeal.REWARDED_VIDEO) {
+            attemptShowRewarded(activity);
+        } else {
+            attemptShowInterstitial(activity);
+        }
+    }
 
-                // Fast-path: try a single immediate show before consent update completes.
-                // If SDK has cached consent info, this avoids waiting several seconds for
-                // requestConsentInfoUpdate(). On FormCacheError we fall back to normal flow.
-                if (!sConsentUpdateFinished.get() && attempt == 0 && !sConsentFormInFlight.get()) {
-                    Object status = getConsentStatus();
-                    Boolean canShowAds = canShowAdsByConsent();
-                    Log.i(TAG, "showConsentForm fast-path before consent update"
-                        + ", status=" + status
-                        + ", canShowAds=" + canShowAds);
-                    if (invokeConsentFormNow(activity, attempt, generation)) {
-                        return;
-                    }
-                }
+    private static String adTypeLabel(int adType) {
+        return adType == Appodeal.REWARDED_VIDEO ? "rewarded" : "interstitial";
+    }
 
-                if (!sConsentUpdateFinished.get()) {
-                    if (attempt == 0 || attempt % 4 == 0) {
-                        Log.i(TAG, "showConsentForm wait: consent update not finished, attempt=" + attempt);
-                    }
+    private static void notifyAdEvent(int adType, String event, boolean success, String reason) {
+        if (adType == Appodeal.REWARDED_VIDEO) {
+            sendRewardedEvent(event, success, reason, false, 0.0d, null);
+        } else {
+            sendInterstitialEvent(event, success, reason);
+        }
+    }
 
-                    if (!sConsentUpdateInFlight.get()
-                        && sLastAppKey != null
-                        && !sLastAppKey.trim().isEmpty()) {
-                        requestConsentInfoUpdate(activity, sLastAppKey, null);
-                    }
+    /**
+     * Hint that {@code adType} ("interstitial" or "rewarded") will be shown in
+     * about {@code inMs}. The type leaves auto-cache and is cached just ahead
+     * of that moment. A negative value returns it to auto-cache.
+     */
+    public static void hintUpcoming(final String adType, final int inMs) {
+        final int type;
+        if ("interstitial".equals(adType)) {
+            type = Appodeal.INTERSTITIAL;
+        } else if ("rewarded".equals(adType)) {
+            type = Appodeal.REWARDED_VIDEO;
+        } else {
+            Log.w(TAG, "hintUpcoming: unknown ad type " + adType);
+            return;
+        }
 
-                    MAIN_HANDLER.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            scheduleConsentFormAttempt(activity, attempt + 1, generation);
-                        }
-                    }, CONSENT_FORM_RETRY_DELAY_MS);
-                    return;
-                }
+        runOnMainThread("prefetchHint", new Runnable() {
+            @Override
+            public void run() {
+                PrefetchScheduler.hint(type, inMs);
+            }
+        });
+    }
 
-                if (!isConsentInfoReadyForForm()) {
-                    if (attempt == 0 || attempt % 4 == 0) {
-                        Log.i(TAG, "showConsentForm wait: consent state not ready, attempt=" + attempt);
-                    }
+    /**
+     * Called by the game once its own startup loading is done. On throttled
+     * devices ad caching waits for this signal.
+     */
+    public static void notifyGameReady() {
+        runOnMainThread("notifyGameReady", new Runnable() {
+            @Override
+            public void run() {
+                DeviceProfile.markGameReady();
+            }
+        });
+    }
 
-                    if (attempt >= CONSENT_FORM_MAX_ATTEMPTS) {
-                        Log.w(TAG, "showConsentForm give up: consent state still not ready");
-                        sShowConsentRequested.set(false);
-                        sConsentFormInFlight.set(false);
-                        return;
-                    }
+    /** See {@link RewardJournal#drain}. */
+    public static String drainRewards() {
+        return RewardJournal.drain();
+    }
 
-                    if (!sConsentUpdateInFlight.get()
-                        && sLastAppKey != null
-                        && !sLastAppKey.trim().isEmpty()) {
-                        requestConsentInfoUpdate(activity, sLastAppKey, null);
-                    }
+    public static void acknowledgeRewards(long seq) {
+        RewardJournal.acknowledge(seq);
+    }
 
-                    MAIN_HANDLER.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            scheduleConsentFormAttempt(activity, attempt + 1, generation);
+    /** Informational events Lua consumes, as {@link EventFilter} bits. */
+    public static void setEventMask(int mask) {
+        EventFilter.setMask(mask);
+    }
+
+    /** Show watchdog window; 0 disables it. */
+    public static void setShowTimeoutMs(int timeoutMs) {
+        sShowTimeoutMs = Math.max(0, timeoutMs);
+    }
+
+    public static void setMainThreadBudgetMs(int budgetMs) {
+        BridgeTaskMonitor.setBudgetMs(budgetMs);
+    }
+
+    /**
+     * Bridge diagnostics as text, one table per line: a dotted path followed
+     * by tab-separated key=value pairs. Parsed into a Lua table natively.
+     */
+    public static String getBridgeStats() {
+        StringBuilder out = new StringBuilder();
+        appendInitStats(out);
+        appendConsentStats(out);
+        BridgeTaskMonitor.appendStats(out);
+        PrefetchScheduler.appendStats(out);
+        CreativeAgeTracker.appendStats(out);
+        NetworkMonitor.appendStats(out);
+        MemoryPressureMonitor.appendStats(out);
+        DeviceProfile.appendStats(out);
+        AdapterPresets.appendStats(out);
+        EventFilter.appendStats(out);
+        RewardJournal.appendStats(out);
+        ShowSessions.appendStats(out);
+        BridgeState.appendStats(out);
+        return out.toString();
+    }
+
+    public static boolean showConsentForm() {
+        Log.i(TAG, "showConsentForm called");
+
+        final Activity activity = getActivity();
+        if (activity == null) {
+            Log.e(TAG, "showConsentForm: activity_is_null");
+            return false;
+        }
+
+        runOnMainThread("consentShowRequested", new Runnable() {
+            @Override
+            public void run() {
+                observeActivity(activity);
+                CONSENT.onShowRequested();
+            }
+        });
+
+        return true;
+    }
+
+    public static boolean preloadConsentForm() {
+        Log.i(TAG, "preloadConsentForm called");
+        runOnMainThread("consentPreloadRequested", new Runnable() {
+            @Override
+            public void run() {
+                CONSENT.onPreloadRequested();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Feeds window focus and lifecycle events of the game activity into the
+     * consent state machine. Main thread only.
+     */
+    private static void observeActivity(final Activity activity) {
+        if (activity == null || sObservedActivity.get() == activity) {
+            return;
+        }
+        sObservedActivity = new WeakReference<Activity>(activity);
+
+        try {
+            activity.getWindow().getDecorView().getViewTreeObserver().addOnWindowFocusChangeListener(
+                new ViewTreeObserver.OnWindowFocusChangeListener() {
+                    @Override
+                    public void onWindowFocusChanged(boolean hasFocus) {
+                        if (sObservedActivity.get() == activity) {
+                            CONSENT.onWindowFocusChanged(hasFocus);
                         }
-                    }, CONSENT_FORM_RETRY_DELAY_MS);
-                    return;
+                    }
                 }
+            );
+        } catch (Throwable throwable) {
+            Log.w(TAG, "window focus observer unavailable: " + throwable.getClass().getSimpleName());
+        }
 
-                if (sConsentFormInFlight.get()) {
-                    if (attempt == 0 || attempt % 4 == 0) {
-                        Log.i(TAG, "showConsentForm wait: request already in flight, attempt=" + attempt);
+        if (sLifecycleObserverRegistered.compareAndSet(false, true)) {
+            try {
+                activity.getApplication().registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+                    @Override
+                    public void onActivityCreated(Activity created, Bundle savedInstanceState) {
                     }
 
-                    MAIN_HANDLER.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            scheduleConsentFormAttempt(activity, attempt + 1, generation);
+                    @Override
+                    public void onActivityStarted(Activity started) {
+                    }
+
+                    @Override
+                    public void onActivityResumed(Activity resumed) {
+                        if (resumed != sObservedActivity.get() && resumed == getActivity()) {
+                            observeActivity(resumed);
                         }
-                    }, CONSENT_FORM_RETRY_DELAY_MS);
-                    return;
-                }
+                    }
 
-                if (attempt == 0 || attempt % 4 == 0) {
-                    Object status = getConsentStatus();
-                    Boolean canShowAds = canShowAdsByConsent();
-                    Log.i(TAG, "showConsentForm try: attempt=" + attempt
-                        + ", status=" + status
-                        + ", canShowAds=" + canShowAds
-                        + ", consentUpdated=" + sConsentInfoUpdated.get()
-                        + ", updateFinished=" + sConsentUpdateFinished.get());
-                }
+                    @Override
+                    public void onActivityPaused(Activity paused) {
+                    }
 
-                if (invokeConsentFormNow(activity, attempt, generation)) {
-                    return;
-                }
+                    @Override
+                    public void onActivityStopped(Activity stopped) {
+                    }
 
-                if (attempt >= CONSENT_FORM_MAX_ATTEMPTS) {
-                    Log.w(TAG, "showConsentForm give up: API invocation failed");
-                    sShowConsentRequested.set(false);
-                    sConsentFormInFlight.set(false);
-                    return;
-                }
+                    @Override
+                    public void onActivitySaveInstanceState(Activity saved, Bundle outState) {
+                    }
 
-                MAIN_HANDLER.postDelayed(new Runnable() {
                     @Override
-                    public void run() {
-                        scheduleConsentFormAttempt(activity, attempt + 1, generation);
+                    public void onActivityDestroyed(Activity destroyed) {
+                        if (destroyed == sObservedActivity.get()) {
+                            CONSENT.onActivityDestroyed();
+                        }
                     }
-                }, CONSENT_FORM_RETRY_DELAY_MS);
+                });
+            } catch (Throwable throwable) {
+                Log.w(TAG, "lifecycle observer unavailable: " + throwable.getClass().getSimpleName());
             }
-        });
+        }
+
+        CONSENT.onActivityAvailable(activity.hasWindowFocus());
     }
 
-    private static boolean isConsentInfoReadyForForm() {
-        if (sConsentInfoUpdated.get()) {
-            return true;
+    /**
+     * Warm launch: if the last resolved consent allowed ads and is still
+     * within its TTL, apply it before SDK initialization so caching can start
+     * right away. The consent info update still runs and revalidates it.
+     */
+    private static void applyPersistedConsent(Activity activity, String appKey) {
+        ConsentSnapshotStore.Snapshot snapshot = ConsentSnapshotStore.load(activity, appKey);
+        if (snapshot == null) {
+            return;
         }
 
-        Object status = getConsentStatus();
-        if (status != null) {
-            String text = String.valueOf(status);
-            if (text != null) {
-                String normalized = text.trim().toLowerCase(Locale.US);
-                if (!normalized.isEmpty()
-                    && !"unknown".equals(normalized)
-                    && !"null".equals(normalized)) {
-                    return true;
-                }
-            }
+        long ageMs = System.currentTimeMillis() - snapshot.savedAtMs;
+        Log.i(TAG, "consent snapshot found: status=" + snapshot.status
+            + ", canShowAds=" + snapshot.canShowAds
+            + ", ageMs=" + ageMs);
+        if (snapshot.canShowAds) {
+            preconfigureConsentState(activity, snapshot.status);
+        }
+    }
+
+    private static void persistConsentSnapshot() {
+        Activity activity = getActivity();
+        ConsentReading consent = sConsent;
+        if (activity == null || consent.status == null || !consent.isStatusKnown()) {
+            return;
         }
 
-        Boolean canShow = canShowAdsByConsent();
+        ConsentSnapshotStore.save(activity, sLastAppKey, consent.statusName, Boolean.TRUE.equals(consent.canShowAds));
+    }
+
+    private static boolean isConsentStatusKnown() {
+        ConsentReading consent = sConsent;
         // `false` here often means "consent state is not ready yet" during startup.
         // Treat only explicit true as readiness fallback to avoid FormCacheError.
-        return Boolean.TRUE.equals(canShow);
+        return consent.isStatusKnown() || Boolean.TRUE.equals(consent.canShowAds);
     }
 
-    private static boolean invokeConsentFormNow(final Activity activity, final int attempt, final int generation) {
+    private static boolean invokeConsentFormNow(final Activity activity, final int requestId) {
+        BridgeTrace.begin("invokeConsentFormNow");
         try {
-            Class<?> consentManagerClass = Class.forName("com.appodeal.consent.ConsentManager");
+            Class<?> consentManagerClass = Class.forName(ReflectionTargets.CONSENT_MANAGER);
             Method activityShowMethod = null;
             Method contextShowMethod = null;
             for (Method method : consentManagerClass.getMethods()) {
-                if (!"loadAndShowConsentFormIfRequired".equals(method.getName()) || !Modifier.isStatic(method.getModifiers())) {
+                if (!ReflectionTargets.LOAD_AND_SHOW_CONSENT_FORM.equals(method.getName()) || !Modifier.isStatic(method.getModifiers())) {
                     continue;
                 }
                 Class<?>[] params = method.getParameterTypes();
@@ -452,81 +755,143 @@ public final class AppodealBridge {
                 return false;
             }
 
-            sConsentFormInFlight.set(true);
-            sConsentRequestStartedAtMs = SystemClock.elapsedRealtime();
-            final AtomicBoolean callbackCalled = new AtomicBoolean(false);
-            Class<?> listenerType = showMethod.getParameterTypes()[1];
+            Object listener = createConsentFormListener(showMethod.getParameterTypes()[1], requestId);
+            BridgeTrace.beginAsync("consentForm", requestId);
+            showMethod.invoke(null, activity, listener);
+            Log.i(TAG, "showConsentForm: request sent");
+            return true;
+        } catch (Throwable throwable) {
+            BridgeTrace.endAsync("consentForm", requestId);
+            Log.w(TAG, "showConsentForm failed: " + throwable.getClass().getSimpleName() + ":" + throwable.getMessage());
+            return false;
+        } finally {
+            BridgeTrace.end();
+        }
+    }
+
+    private static Object createConsentFormListener(Class<?> listenerType, final int requestId) {
+        return Proxy.newProxyInstance(
+            listenerType.getClassLoader(),
+            new Class<?>[] { listenerType },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method != null ? method.getName() : "unknown";
+                    String callbackDetail = "";
+                    if (args != null && args.length > 0 && args[0] != null) {
+                        callbackDetail = String.valueOf(args[0]);
+                    }
+                    Log.i(TAG, "showConsentForm callback: " + name);
+                    if (!callbackDetail.isEmpty()) {
+                        Log.i(TAG, "showConsentForm callback detail: " + callbackDetail);
+                    }
+
+                    String normalized = name.toLowerCase(Locale.US);
+                    String detailNormalized = callbackDetail.toLowerCase(Locale.US);
+                    boolean isError = normalized.contains("error") || normalized.contains("failed");
+                    boolean isDismiss = normalized.contains("dismiss") || normalized.contains("close");
+                    boolean isOpened = normalized.contains("open") || normalized.contains("show");
+                    boolean hasDismissError = detailNormalized.contains("formcacheerror")
+                        || detailNormalized.contains("consent information is null")
+                        || detailNormalized.contains("error")
+                        || detailNormalized.contains("failed");
+
+                    final String detail = callbackDetail;
+                    if (isError || hasDismissError) {
+                        runOnMainThread("consentFormCallback", new Runnable() {
+                            @Override
+                            public void run() {
+                                BridgeTrace.endAsync("consentForm", requestId);
+                                CONSENT.onFormError(requestId, detail);
+                            }
+                        });
+                    } else if (isDismiss) {
+                        runOnMainThread("consentFormCallback", new Runnable() {
+                            @Override
+                            public void run() {
+                                BridgeTrace.endAsync("consentForm", requestId);
+                                refreshConsent("consent_form_dismissed");
+                                persistConsentSnapshot();
+                                CONSENT.onFormDismissed(requestId);
+                            }
+                        });
+                    } else if (isOpened) {
+                        runOnMainThread("consentFormCallback", new Runnable() {
+                            @Override
+                            public void run() {
+                                CONSENT.onFormOpened(requestId);
+                            }
+                        });
+                    }
+
+                    return getDefaultReturnValue(method != null ? method.getReturnType() : null);
+                }
+            }
+        );
+    }
+
+    /**
+     * Loads the consent form without showing it. Uses the
+     * ConsentManager.load(Context, listener) style API whose success callback
+     * delivers the form object.
+     */
+    private static boolean invokeConsentFormLoad(final Activity activity, final int preloadId) {
+        try {
+            Class<?> consentManagerClass = Class.forName(ReflectionTargets.CONSENT_MANAGER);
+            Method loadMethod = null;
+            for (Method method : consentManagerClass.getMethods()) {
+                String name = method.getName();
+                if (!(ReflectionTargets.LOAD_CONSENT_FORM.equals(name) || ReflectionTargets.LOAD_CONSENT_FORM_LEGACY.equals(name)) || !Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+                Class<?>[] params = method.getParameterTypes();
+                if (params.length == 2 && Context.class.isAssignableFrom(params[0]) && params[1].isInterface()) {
+                    loadMethod = method;
+                    break;
+                }
+            }
+
+            if (loadMethod == null) {
+                Log.w(TAG, "preloadConsentForm: API unavailable");
+                return false;
+            }
+
+            Class<?> listenerType = loadMethod.getParameterTypes()[1];
             Object listener = Proxy.newProxyInstance(
                 listenerType.getClassLoader(),
                 new Class<?>[] { listenerType },
                 new InvocationHandler() {
                     @Override
                     public Object invoke(Object proxy, Method method, Object[] args) {
-                        if (generation != sConsentAttemptGeneration.get()) {
-                            return getDefaultReturnValue(method != null ? method.getReturnType() : null);
+                        if (method != null && Object.class.equals(method.getDeclaringClass())) {
+                            return getDefaultReturnValue(method.getReturnType());
                         }
 
-                        callbackCalled.set(true);
                         String name = method != null ? method.getName() : "unknown";
-                        String callbackDetail = "";
-                        if (args != null && args.length > 0 && args[0] != null) {
-                            callbackDetail = String.valueOf(args[0]);
-                        }
-                        Log.i(TAG, "showConsentForm callback: " + name);
-                        if (!callbackDetail.isEmpty()) {
-                            Log.i(TAG, "showConsentForm callback detail: " + callbackDetail);
-                        }
-
+                        final Object payload = args != null && args.length > 0 ? args[0] : null;
                         String normalized = name.toLowerCase(Locale.US);
-                        String detailNormalized = callbackDetail.toLowerCase(Locale.US);
-                        boolean isError = normalized.contains("error") || normalized.contains("failed");
-                        boolean isDismiss = normalized.contains("dismiss") || normalized.contains("close");
-                        boolean isOpened = normalized.contains("open") || normalized.contains("show");
-                        boolean hasDismissError = detailNormalized.contains("formcacheerror")
-                            || detailNormalized.contains("consent information is null")
-                            || detailNormalized.contains("error")
-                            || detailNormalized.contains("failed");
-
-                        if (isError || hasDismissError) {
-                            sConsentFormInFlight.set(false);
-                            sConsentRequestStartedAtMs = 0L;
-                            if (attempt < CONSENT_FORM_MAX_ATTEMPTS) {
-                                Log.w(TAG, "showConsentForm callback indicates error, retrying attempt=" + (attempt + 1));
-                                if (sLastAppKey != null && !sLastAppKey.trim().isEmpty()) {
-                                    requestConsentInfoUpdate(activity, sLastAppKey, null);
+                        Log.i(TAG, "preloadConsentForm callback: " + name);
+
+                        if (normalized.contains("error") || normalized.contains("fail") || payload == null) {
+                            final String detail = payload != null ? String.valueOf(payload) : name;
+                            runOnMainThread("consentFormLoadCallback", new Runnable() {
+                                @Override
+                                public void run() {
+                                    CONSENT.onFormLoadFailed(preloadId, detail);
                                 }
-                                MAIN_HANDLER.postDelayed(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        scheduleConsentFormAttempt(activity, attempt + 1, generation);
-                                    }
-                                }, CONSENT_FORM_RETRY_DELAY_MS);
-                            } else {
-                                sShowConsentRequested.set(false);
-                            }
-                        } else if (isDismiss) {
-                            sConsentFormInFlight.set(false);
-                            boolean consentReadyForDismiss = sConsentInfoUpdated.get() && sConsentUpdateFinished.get();
-                            if (!consentReadyForDismiss && attempt < CONSENT_FORM_MAX_ATTEMPTS) {
-                                Log.w(TAG, "showConsentForm dismissed before consent update finished"
-                                    + " (updated=" + sConsentInfoUpdated.get()
-                                    + ", finished=" + sConsentUpdateFinished.get()
-                                    + "), retrying attempt=" + (attempt + 1));
-                                if (sLastAppKey != null && !sLastAppKey.trim().isEmpty()) {
-                                    requestConsentInfoUpdate(activity, sLastAppKey, null);
-                                }
-                                MAIN_HANDLER.postDelayed(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        scheduleConsentFormAttempt(activity, attempt + 1, generation);
+                            });
+                        } else {
+                            runOnMainThread("consentFormLoadCallback", new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (!CONSENT.isLoadingPreload(preloadId)) {
+                                        Log.i(TAG, "preloadConsentForm: dropping stale form, id=" + preloadId);
+                                        return;
                                     }
-                                }, CONSENT_FORM_RETRY_DELAY_MS);
-                            } else {
-                                sConsentRequestStartedAtMs = 0L;
-                                sShowConsentRequested.set(false);
-                            }
-                        } else if (isOpened) {
-                            // Keep requested=true until form closes/dismisses.
+                                    sPreloadedConsentForm = payload;
+                                    CONSENT.onFormLoaded(preloadId);
+                                }
+                            });
                         }
 
                         return getDefaultReturnValue(method != null ? method.getReturnType() : null);
@@ -534,76 +899,73 @@ public final class AppodealBridge {
                 }
             );
 
-            showMethod.invoke(null, activity, listener);
-            Log.i(TAG, "showConsentForm: request sent");
-
-            MAIN_HANDLER.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    if (generation != sConsentAttemptGeneration.get()) {
-                        return;
-                    }
-
-                    if (!sShowConsentRequested.get()) {
-                        return;
-                    }
-                    if (callbackCalled.get()) {
-                        return;
-                    }
-                    if (!sConsentFormInFlight.get()) {
-                        return;
-                    }
-
-                    if (!activity.hasWindowFocus()) {
-                        if (activity.isFinishing() || activity.isDestroyed()) {
-                            sShowConsentRequested.set(false);
-                            sConsentFormInFlight.set(false);
-                            sConsentRequestStartedAtMs = 0L;
-                            return;
-                        }
-
-                        long startedAt = sConsentRequestStartedAtMs;
-                        long pendingMs = startedAt > 0L ? (SystemClock.elapsedRealtime() - startedAt) : 0L;
-                        if (pendingMs > 30000L) {
-                            Log.w(TAG, "showConsentForm give up: pending without callback for " + pendingMs + "ms");
-                            sShowConsentRequested.set(false);
-                            sConsentFormInFlight.set(false);
-                            sConsentRequestStartedAtMs = 0L;
-                            return;
-                        }
+            loadMethod.invoke(null, activity.getApplicationContext(), listener);
+            Log.i(TAG, "preloadConsentForm: request sent");
+            return true;
+        } catch (Throwable throwable) {
+            Log.w(TAG, "preloadConsentForm failed: " + throwable.getClass().getSimpleName() + ":" + throwable.getMessage());
+            return false;
+        }
+    }
 
-                        // Most likely consent form (or another overlay) is on top.
-                        Log.i(TAG, "showConsentForm pending: activity lost focus, waiting");
-                        MAIN_HANDLER.postDelayed(this, CONSENT_FORM_RETRY_DELAY_MS);
-                        return;
-                    }
+    private static boolean invokePreloadedConsentFormShow(Activity activity, int requestId) {
+        Object form = sPreloadedConsentForm;
+        sPreloadedConsentForm = null;
+        if (form == null) {
+            return false;
+        }
 
-                    if (attempt >= CONSENT_FORM_MAX_ATTEMPTS) {
-                        Log.w(TAG, "showConsentForm give up: no callback");
-                        sShowConsentRequested.set(false);
-                        sConsentFormInFlight.set(false);
-                        sConsentRequestStartedAtMs = 0L;
-                        return;
-                    }
-                    Log.w(TAG, "showConsentForm no callback while focused, retrying");
-                    sConsentFormInFlight.set(false);
-                    sConsentRequestStartedAtMs = 0L;
-                    scheduleConsentFormAttempt(activity, attempt + 1, generation);
+        try {
+            for (Method method : form.getClass().getMethods()) {
+                Class<?>[] params = method.getParameterTypes();
+                if (!ReflectionTargets.SHOW_CONSENT_FORM.equals(method.getName())
+                    || params.length != 2
+                    || !params[0].isAssignableFrom(Activity.class)
+                    || !params[1].isInterface()) {
+                    continue;
                 }
-            }, CONSENT_NO_CALLBACK_TIMEOUT_MS);
 
-            return true;
+                BridgeTrace.beginAsync("consentForm", requestId);
+                method.invoke(form, activity, createConsentFormListener(params[1], requestId));
+                Log.i(TAG, "showConsentForm: preloaded form shown");
+                return true;
+            }
+            Log.w(TAG, "showConsentForm: preloaded form has no compatible show method");
         } catch (Throwable throwable) {
-            Log.w(TAG, "showConsentForm failed: " + throwable.getClass().getSimpleName() + ":" + throwable.getMessage());
-            sConsentFormInFlight.set(false);
-            sConsentRequestStartedAtMs = 0L;
-            return false;
+            Log.w(TAG, "showConsentForm preloaded failed: " + throwable.getClass().getSimpleName() + ":" + throwable.getMessage());
         }
+        return false;
+    }
+
+    /**
+     * Some adapters never report shown or show_failed after Appodeal.show().
+     * If neither arrives in time, the session ends with show_timeout so the
+     * Lua callback is released, and a warmup starts for the next show.
+     */
+    private static void scheduleShowWatchdog(final int adType, final int session) {
+        final int timeoutMs = sShowTimeoutMs;
+        if (timeoutMs <= 0 || session == 0) {
+            return;
+        }
+
+        postDelayedOnMainThread("showWatchdog", new Runnable() {
+            @Override
+            public void run() {
+                if (!ShowSessions.isAwaitingShown(adType, session)) {
+                    return;
+                }
+                String label = adTypeLabel(adType);
+                Log.w(TAG, "show " + label + ": no shown/show_failed within " + timeoutMs + "ms, session=" + session);
+                BridgeTrace.endAsync("show." + label, adType);
+                notifyAdEvent(adType, "show_timeout", false, "no_lifecycle_callback");
+                scheduleCacheWarmup(label + "_show_timeout");
+            }
+        }, timeoutMs);
     }
 
     private static void attemptShowInterstitial(final Activity activity) {
         if (activity == null) {
-            nativeOnInterstitialEvent("show_failed", false, "activity_is_null");
+            sendInterstitialEvent("show_failed", false, "activity_is_null");
             return;
         }
 
@@ -612,33 +974,39 @@ public final class AppodealBridge {
             Log.i(TAG, "showInterstitial: canShow=true, scheduling with " + SHOW_DELAY_MS + "ms delay");
             // Delay show to give Defold's render thread time to handle
             // Surface lifecycle before Android creates ad Activity window.
-            MAIN_HANDLER.postDelayed(new Runnable() {
+            BridgeTrace.beginAsync("showDelay.interstitial", Appodeal.INTERSTITIAL);
+            postDelayedOnMainThread("showInterstitialDelayed", new Runnable() {
                 @Override
                 public void run() {
+                    BridgeTrace.endAsync("showDelay.interstitial", Appodeal.INTERSTITIAL);
                     try {
                         if (activity.isFinishing() || activity.isDestroyed()) {
                             Log.w(TAG, "showInterstitial aborted: activity gone");
-                            nativeOnInterstitialEvent("show_failed", false, "activity_destroyed");
+                            sendInterstitialEvent("show_failed", false, "activity_destroyed");
                             return;
                         }
                         Log.i(TAG, "showInterstitial: calling Appodeal.show");
+                        BridgeTrace.beginAsync("show.interstitial", Appodeal.INTERSTITIAL);
+                        int session = ShowSessions.markPresenting(Appodeal.INTERSTITIAL);
+                        scheduleShowWatchdog(Appodeal.INTERSTITIAL, session);
+                        BridgeState.publish();
                         Appodeal.show(activity, Appodeal.INTERSTITIAL);
                     } catch (Throwable throwable) {
                         Log.e(TAG, "showInterstitial: Appodeal.show threw", throwable);
-                        nativeOnInterstitialEvent("show_failed", false, throwable.getMessage());
+                        sendInterstitialEvent("show_failed", false, throwable.getMessage());
                     }
                 }
             }, SHOW_DELAY_MS);
         } else {
             Log.w(TAG, "showInterstitial: interstitial_not_available");
             scheduleCacheWarmup("interstitial_not_available");
-            nativeOnInterstitialEvent("show_failed", false, "interstitial_not_available");
+            sendInterstitialEvent("show_failed", false, "interstitial_not_available");
         }
     }
 
     private static void attemptShowRewarded(final Activity activity) {
         if (activity == null) {
-            nativeOnRewardedEvent("show_failed", false, "activity_is_null", false, 0.0d, null);
+            sendRewardedEvent("show_failed", false, "activity_is_null", false, 0.0d, null);
             return;
         }
 
@@ -647,130 +1015,134 @@ public final class AppodealBridge {
             Log.i(TAG, "showRewarded: canShow=true, scheduling with " + SHOW_DELAY_MS + "ms delay");
             // Delay show to give Defold's render thread time to handle
             // Surface lifecycle before Android creates ad Activity window.
-            MAIN_HANDLER.postDelayed(new Runnable() {
+            BridgeTrace.beginAsync("showDelay.rewarded", Appodeal.REWARDED_VIDEO);
+            postDelayedOnMainThread("showRewardedDelayed", new Runnable() {
                 @Override
                 public void run() {
+                    BridgeTrace.endAsync("showDelay.rewarded", Appodeal.REWARDED_VIDEO);
                     try {
                         if (activity.isFinishing() || activity.isDestroyed()) {
                             Log.w(TAG, "showRewarded aborted: activity gone");
-                            nativeOnRewardedEvent("show_failed", false, "activity_destroyed", false, 0.0d, null);
+                            sendRewardedEvent("show_failed", false, "activity_destroyed", false, 0.0d, null);
                             return;
                         }
                         Log.i(TAG, "showRewarded: calling Appodeal.show");
+                        BridgeTrace.beginAsync("show.rewarded", Appodeal.REWARDED_VIDEO);
+                        int session = ShowSessions.markPresenting(Appodeal.REWARDED_VIDEO);
+                        scheduleShowWatchdog(Appodeal.REWARDED_VIDEO, session);
+                        BridgeState.publish();
                         Appodeal.show(activity, Appodeal.REWARDED_VIDEO);
                     } catch (Throwable throwable) {
                         Log.e(TAG, "showRewarded: Appodeal.show threw", throwable);
-                        nativeOnRewardedEvent("show_failed", false, throwable.getMessage(), false, 0.0d, null);
+                        sendRewardedEvent("show_failed", false, throwable.getMessage(), false, 0.0d, null);
                     }
                 }
             }, SHOW_DELAY_MS);
         } else {
             Log.w(TAG, "showRewarded: rewarded_not_available");
             scheduleCacheWarmup("rewarded_not_available");
-            nativeOnRewardedEvent("show_failed", false, "rewarded_not_available", false, 0.0d, null);
+            sendRewardedEvent("show_failed", false, "rewarded_not_available", false, 0.0d, null);
         }
     }
 
-    private static void performInitializeCall(Activity activity, String appKey) {
+    private static void performInitializeCall(Activity activity, String appKey, int generation) {
+        BridgeTrace.begin("performInitializeCall");
         try {
             logConsentState("before_initialize");
 
-            InitCallResult initCallResult = callInitialize(activity, appKey);
+            InitCallResult initCallResult = callInitialize(activity, appKey, generation);
             Log.i(TAG, "initialize success");
-            notifyInitOnce(true, null);
+            notifyInitOnce(generation, true, null);
             warmUpCacheNow("initialize_success");
             if (initCallResult.waitForCallback) {
                 Log.i(TAG, "initialize callback will be treated as informational");
             }
         } catch (Throwable throwable) {
             Log.e(TAG, "initialize failed with exception", throwable);
-            notifyInitOnce(false, throwable.getClass().getSimpleName() + ":" + throwable.getMessage());
+            notifyInitOnce(generation, false, throwable.getClass().getSimpleName() + ":" + throwable.getMessage());
+        } finally {
+            BridgeTrace.end();
         }
     }
 
-    private static void requestConsentInfoUpdate(Activity activity, String appKey, final Runnable onComplete) {
+    private static void requestConsentInfoUpdate(Activity activity, String appKey) {
+        final AtomicBoolean completed = new AtomicBoolean(false);
         if (activity == null || appKey == null || appKey.trim().isEmpty()) {
-            if (onComplete != null) {
-                runOnMainThread(onComplete);
-            }
-            return;
-        }
-
-        if (!sConsentUpdateInFlight.compareAndSet(false, true)) {
-            if (onComplete != null) {
-                runOnMainThread(onComplete);
-            }
+            consentUpdateCompletion(completed, false).run();
             return;
         }
 
+        BridgeTrace.begin("requestConsentInfoUpdate");
         try {
-            final Class<?> consentManagerClass = Class.forName("com.appodeal.consent.ConsentManager");
+            final Class<?> consentManagerClass = Class.forName(ReflectionTargets.CONSENT_MANAGER);
             Method requestMethod = consentManagerClass.getMethod(
-                "requestConsentInfoUpdate",
-                Class.forName("com.appodeal.consent.ConsentUpdateRequestParameters"),
-                Class.forName("com.appodeal.consent.ConsentInfoUpdateCallback")
+                ReflectionTargets.REQUEST_CONSENT_INFO_UPDATE,
+                Class.forName(ReflectionTargets.CONSENT_UPDATE_REQUEST_PARAMETERS),
+                Class.forName(ReflectionTargets.CONSENT_INFO_UPDATE_CALLBACK)
             );
 
-            final AtomicBoolean completed = new AtomicBoolean(false);
-            final Runnable finish = new Runnable() {
-                @Override
-                public void run() {
-                    if (!completed.compareAndSet(false, true)) {
-                        return;
-                    }
-
-                    sConsentUpdateInFlight.set(false);
-                    sConsentUpdateFinished.set(true);
-                    logConsentState("after_consent_update");
-                    if (onComplete != null) {
-                        runOnMainThread(onComplete);
-                    }
-                    if (sShowConsentRequested.get()) {
-                        Log.i(TAG, "executing deferred showConsentForm after consent info update");
-                        showConsentForm();
-                    }
-                }
-            };
-
             Object requestParams = buildConsentUpdateRequest(activity, appKey);
             if (requestParams == null) {
                 Log.w(TAG, "consent update skipped: cannot build ConsentUpdateRequestParameters");
-                finish.run();
+                consentUpdateCompletion(completed, false).run();
                 return;
             }
 
             Object callback = createConsentUpdateCallback(
                 requestMethod.getParameterTypes()[1],
-                finish
+                consentUpdateCompletion(completed, true),
+                consentUpdateCompletion(completed, false)
             );
             if (callback == null) {
                 Log.w(TAG, "consent update skipped: cannot create ConsentInfoUpdateCallback");
-                finish.run();
+                consentUpdateCompletion(completed, false).run();
                 return;
             }
 
-            MAIN_HANDLER.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    finish.run();
-                }
-            }, CONSENT_UPDATE_TIMEOUT_MS);
+            postDelayedOnMainThread("consentUpdateTimeout", consentUpdateCompletion(completed, false), CONSENT_UPDATE_TIMEOUT_MS);
 
+            sConsentUpdateTraceCookie++;
+            BridgeTrace.beginAsync("consentInfoUpdate", sConsentUpdateTraceCookie);
             requestMethod.invoke(null, requestParams, callback);
             Log.i(TAG, "consent update requested");
         } catch (Throwable throwable) {
             Log.w(TAG, "consent update skipped: " + throwable.getClass().getSimpleName());
-            sConsentUpdateInFlight.set(false);
-            sConsentUpdateFinished.set(true);
-            if (onComplete != null) {
-                runOnMainThread(onComplete);
-            }
+            consentUpdateCompletion(completed, false).run();
+        } finally {
+            BridgeTrace.end();
         }
     }
 
+    /**
+     * Reports the first outcome of one consent info update to the state
+     * machine; later outcomes (callback after timeout) are dropped.
+     */
+    private static Runnable consentUpdateCompletion(final AtomicBoolean completed, final boolean updated) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (!completed.compareAndSet(false, true)) {
+                    return;
+                }
+
+                BridgeTrace.endAsync("consentInfoUpdate", sConsentUpdateTraceCookie);
+                refreshConsent("after_consent_update");
+                if (updated) {
+                    persistConsentSnapshot();
+                }
+                postDelayedOnMainThread("consentUpdateComplete", new Runnable() {
+                    @Override
+                    public void run() {
+                        CONSENT.onInfoUpdateFinished(updated);
+                    }
+                }, 0L);
+            }
+        };
+    }
+
     private static Object buildConsentUpdateRequest(Activity activity, String appKey) {
         try {
-            Class<?> requestClass = Class.forName("com.appodeal.consent.ConsentUpdateRequestParameters");
+            Class<?> requestClass = Class.forName(ReflectionTargets.CONSENT_UPDATE_REQUEST_PARAMETERS);
             Constructor<?>[] constructors = requestClass.getConstructors();
             String sdkVersion = getAppodealVersion();
 
@@ -823,7 +1195,7 @@ public final class AppodealBridge {
 
     private static String getAppodealVersion() {
         try {
-            Method method = Appodeal.class.getMethod("getVersion");
+            Method method = Appodeal.class.getMethod(ReflectionTargets.GET_VERSION);
             Object value = method.invoke(null);
             return value != null ? String.valueOf(value) : "unknown";
         } catch (Throwable ignored) {
@@ -831,7 +1203,11 @@ public final class AppodealBridge {
         }
     }
 
-    private static Object createConsentUpdateCallback(final Class<?> callbackType, final Runnable onComplete) {
+    private static Object createConsentUpdateCallback(
+        final Class<?> callbackType,
+        final Runnable onUpdated,
+        final Runnable onFailed
+    ) {
         if (callbackType == null || !callbackType.isInterface()) {
             return null;
         }
@@ -849,9 +1225,8 @@ public final class AppodealBridge {
                     || normalized.contains("updated")
                     || normalized.contains("success")) {
                     Log.i(TAG, "consent update callback: updated");
-                    sConsentInfoUpdated.set(true);
-                    if (onComplete != null) {
-                        onComplete.run();
+                    if (onUpdated != null) {
+                        onUpdated.run();
                     }
                 } else if ("onFailed".equals(methodName)
                     || normalized.contains("failed")
@@ -861,14 +1236,13 @@ public final class AppodealBridge {
                         reason = String.valueOf(args[0]);
                     }
                     Log.w(TAG, "consent update callback: failed, reason=" + reason);
-                    // Do not sConsentInfoUpdated.set(false), let it stay false (or true if previously set)
-                    if (onComplete != null) {
-                        onComplete.run();
+                    if (onFailed != null) {
+                        onFailed.run();
                     }
                 } else {
                     Log.i(TAG, "consent update callback: " + methodName);
-                    if (onComplete != null) {
-                        onComplete.run();
+                    if (onFailed != null) {
+                        onFailed.run();
                     }
                 }
                 return getDefaultReturnValue(method != null ? method.getReturnType() : null);
@@ -882,10 +1256,50 @@ public final class AppodealBridge {
         );
     }
 
+    /**
+     * Consent as the bridge last saw it. ConsentManager is read through
+     * reflection, so it is read only by {@link #refreshConsent}, when a
+     * consent callback fires, init completes or a preconfigured status is
+     * applied; every other check uses the held reading.
+     */
+    private static final class ConsentReading {
+        static final ConsentReading NONE = new ConsentReading(null, null);
+
+        final Object status;
+        /** ConsentStatus constant name, or "" when the status is not available. */
+        final String statusName;
+        final Boolean canShowAds;
+
+        ConsentReading(Object status, Boolean canShowAds) {
+            this.status = status;
+            this.statusName = status == null ? ""
+                : status instanceof Enum ? ((Enum<?>) status).name() : String.valueOf(status);
+            this.canShowAds = canShowAds;
+        }
+
+        boolean isStatusKnown() {
+            return !"unknown".equals(normalizedStatus());
+        }
+
+        /** Lower-case status, "unknown" when not reported. */
+        String normalizedStatus() {
+            String normalized = statusName.trim().toLowerCase(Locale.US);
+            return normalized.isEmpty() || "null".equals(normalized) ? "unknown" : normalized;
+        }
+    }
+
+    private static void refreshConsent(String stage) {
+        ConsentReading consent = new ConsentReading(getConsentStatus(), canShowAdsByConsent());
+        sConsent = consent;
+        sConsentRefreshes.incrementAndGet();
+        logConsentState(stage);
+        BridgeState.onConsent(consent.normalizedStatus(), Boolean.TRUE.equals(consent.canShowAds));
+    }
+
     private static Boolean canShowAdsByConsent() {
         try {
-            Class<?> consentManagerClass = Class.forName("com.appodeal.consent.ConsentManager");
-            Method method = consentManagerClass.getMethod("canShowAds");
+            Class<?> consentManagerClass = Class.forName(ReflectionTargets.CONSENT_MANAGER);
+            Method method = consentManagerClass.getMethod(ReflectionTargets.CAN_SHOW_ADS);
             Object value = method.invoke(null);
             if (value instanceof Boolean) {
                 return (Boolean) value;
@@ -897,14 +1311,14 @@ public final class AppodealBridge {
 
     private static Object getConsentStatus() {
         try {
-            Class<?> consentManagerClass = Class.forName("com.appodeal.consent.ConsentManager");
+            Class<?> consentManagerClass = Class.forName(ReflectionTargets.CONSENT_MANAGER);
             try {
-                Method getter = consentManagerClass.getMethod("getStatus");
+                Method getter = consentManagerClass.getMethod(ReflectionTargets.GET_STATUS);
                 return getter.invoke(null);
             } catch (NoSuchMethodException ignored) {
             }
 
-            Field field = consentManagerClass.getField("status");
+            Field field = consentManagerClass.getField(ReflectionTargets.STATUS);
             return field.get(null);
         } catch (Throwable ignored) {
         }
@@ -912,12 +1326,17 @@ public final class AppodealBridge {
     }
 
     private static void logConsentState(String stage) {
-        try {
-            Object status = getConsentStatus();
-            Boolean canShow = canShowAdsByConsent();
-            Log.i(TAG, "consent state[" + stage + "]: status=" + status + ", canShowAds=" + canShow);
-        } catch (Throwable ignored) {
-        }
+        ConsentReading consent = sConsent;
+        Log.i(TAG, "consent state[" + stage + "]: status=" + consent.status + ", canShowAds=" + consent.canShowAds);
+    }
+
+    private static void appendConsentStats(StringBuilder out) {
+        ConsentReading consent = sConsent;
+        out.append("consent")
+            .append("\tstatus=").append(consent.normalizedStatus())
+            .append("\tcan_show_ads=").append(Boolean.TRUE.equals(consent.canShowAds) ? 1 : 0)
+            .append("\trefreshes=").append(sConsentRefreshes.get())
+            .append('\n');
     }
 
     private static void configureCallbacks() {
@@ -929,40 +1348,54 @@ public final class AppodealBridge {
             @Override
             public void onInterstitialLoaded(boolean isPrecache) {
                 Log.i(TAG, "interstitial loaded");
-                nativeOnInterstitialEvent("loaded", true, null);
+                PrefetchScheduler.onLoaded(Appodeal.INTERSTITIAL);
+                CreativeAgeTracker.onLoaded(Appodeal.INTERSTITIAL);
+                DeviceProfile.onLoadFinished(Appodeal.INTERSTITIAL);
+                sendInterstitialEvent("loaded", true, null);
+                onAdLoadedForWaiter(Appodeal.INTERSTITIAL);
             }
 
             @Override
             public void onInterstitialFailedToLoad() {
                 Log.w(TAG, "interstitial failed_to_load");
+                PrefetchScheduler.onFailedToLoad(Appodeal.INTERSTITIAL);
+                DeviceProfile.onLoadFinished(Appodeal.INTERSTITIAL);
                 scheduleCacheWarmup("interstitial_failed_to_load");
-                nativeOnInterstitialEvent("failed_to_load", false, "failed_to_load");
+                sendInterstitialEvent("failed_to_load", false, "failed_to_load");
             }
 
             @Override
             public void onInterstitialShowFailed() {
+                BridgeTrace.endAsync("show.interstitial", Appodeal.INTERSTITIAL);
                 Log.w(TAG, "interstitial show_failed");
-                nativeOnInterstitialEvent("show_failed", false, "show_failed");
+                ShowSessions.endPresentation(Appodeal.INTERSTITIAL);
+                sendInterstitialEvent("show_failed", false, "show_failed");
             }
 
             @Override
             public void onInterstitialShown() {
-                nativeOnInterstitialEvent("shown", true, null);
+                CreativeAgeTracker.onCleared(Appodeal.INTERSTITIAL);
+                sendInterstitialEvent("shown", true, null);
             }
 
             @Override
             public void onInterstitialClicked() {
-                nativeOnInterstitialEvent("clicked", true, null);
+                sendInterstitialEvent("clicked", true, null);
             }
 
             @Override
             public void onInterstitialClosed() {
-                nativeOnInterstitialEvent("closed", true, null);
+                BridgeTrace.endAsync("show.interstitial", Appodeal.INTERSTITIAL);
+                refillAfterConsumed(Appodeal.INTERSTITIAL);
+                ShowSessions.endPresentation(Appodeal.INTERSTITIAL);
+                sendInterstitialEvent("closed", true, null);
             }
 
             @Override
             public void onInterstitialExpired() {
-                nativeOnInterstitialEvent("expired", false, "expired");
+                CreativeAgeTracker.onExpired(Appodeal.INTERSTITIAL);
+                refillAfterConsumed(Appodeal.INTERSTITIAL);
+                sendInterstitialEvent("expired", false, "expired");
             }
         });
 
@@ -970,51 +1403,62 @@ public final class AppodealBridge {
             @Override
             public void onRewardedVideoLoaded(boolean isPrecache) {
                 Log.i(TAG, "rewarded loaded");
-                nativeOnRewardedEvent("loaded", true, null, false, 0.0d, null);
+                PrefetchScheduler.onLoaded(Appodeal.REWARDED_VIDEO);
+                CreativeAgeTracker.onLoaded(Appodeal.REWARDED_VIDEO);
+                DeviceProfile.onLoadFinished(Appodeal.REWARDED_VIDEO);
+                sendRewardedEvent("loaded", true, null, false, 0.0d, null);
+                onAdLoadedForWaiter(Appodeal.REWARDED_VIDEO);
             }
 
             @Override
             public void onRewardedVideoFailedToLoad() {
                 Log.w(TAG, "rewarded failed_to_load");
+                PrefetchScheduler.onFailedToLoad(Appodeal.REWARDED_VIDEO);
+                DeviceProfile.onLoadFinished(Appodeal.REWARDED_VIDEO);
                 scheduleCacheWarmup("rewarded_failed_to_load");
-                nativeOnRewardedEvent("failed_to_load", false, "failed_to_load", false, 0.0d, null);
+                sendRewardedEvent("failed_to_load", false, "failed_to_load", false, 0.0d, null);
             }
 
             @Override
             public void onRewardedVideoShowFailed() {
+                BridgeTrace.endAsync("show.rewarded", Appodeal.REWARDED_VIDEO);
                 Log.w(TAG, "rewarded show_failed");
-                nativeOnRewardedEvent("show_failed", false, "show_failed", false, 0.0d, null);
+                ShowSessions.endPresentation(Appodeal.REWARDED_VIDEO);
+                sendRewardedEvent("show_failed", false, "show_failed", false, 0.0d, null);
             }
 
             @Override
             public void onRewardedVideoShown() {
-                sRewardedShownFired = true;
-                nativeOnRewardedEvent("shown", true, null, false, 0.0d, null);
+                CreativeAgeTracker.onCleared(Appodeal.REWARDED_VIDEO);
+                sendRewardedEvent("shown", true, null, false, 0.0d, null);
             }
 
             @Override
             public void onRewardedVideoClicked() {
-                nativeOnRewardedEvent("clicked", true, null, false, 0.0d, null);
+                sendRewardedEvent("clicked", true, null, false, 0.0d, null);
             }
 
             @Override
             public void onRewardedVideoFinished(double amount, String name) {
                 Log.i(TAG, "rewarded reward amount=" + amount + " currency=" + name);
-                sRewardedFinishedFired = true;
-                nativeOnRewardedEvent("reward", true, null, true, amount, name);
+                RewardJournal.append(amount, name);
+                sendRewardedEvent("reward", true, null, true, amount, name);
             }
 
             @Override
             public void onRewardedVideoClosed(boolean finished) {
+                BridgeTrace.endAsync("show.rewarded", Appodeal.REWARDED_VIDEO);
+                boolean shownFired = ShowSessions.wasShown(Appodeal.REWARDED_VIDEO);
+                boolean finishedFired = ShowSessions.wasFinished(Appodeal.REWARDED_VIDEO);
                 Log.i(TAG, "rewarded closed finished=" + finished
-                    + " shownFired=" + sRewardedShownFired
-                    + " finishedFired=" + sRewardedFinishedFired);
+                    + " shownFired=" + shownFired
+                    + " finishedFired=" + finishedFired);
 
                 // Some test creatives never fire onRewardedVideoFinished.
                 // If the ad was shown and user didn't get show_failed, treat
                 // it as a successful view when in test mode.
                 boolean effectiveFinished = finished;
-                if (!finished && sRewardedShownFired && !sRewardedFinishedFired) {
+                if (!finished && shownFired && !finishedFired) {
                     Log.w(TAG, "rewarded closed: SDK did not fire onRewardedVideoFinished."
                         + " This is common with test creatives.");
                     if (sTestMode) {
@@ -1023,20 +1467,32 @@ public final class AppodealBridge {
                     }
                 }
 
-                // Reset flags for next show
-                sRewardedShownFired = false;
-                sRewardedFinishedFired = false;
+                if (effectiveFinished && !finishedFired) {
+                    RewardJournal.append(0.0d, null);
+                }
+                ShowSessions.endPresentation(Appodeal.REWARDED_VIDEO);
+
+                refillAfterConsumed(Appodeal.REWARDED_VIDEO);
 
-                nativeOnRewardedEvent("closed", true, null, effectiveFinished, 0.0d, null);
+                sendRewardedEvent("closed", true, null, effectiveFinished, 0.0d, null);
             }
 
             @Override
             public void onRewardedVideoExpired() {
-                nativeOnRewardedEvent("expired", false, "expired", false, 0.0d, null);
+                CreativeAgeTracker.onExpired(Appodeal.REWARDED_VIDEO);
+                refillAfterConsumed(Appodeal.REWARDED_VIDEO);
+                sendRewardedEvent("expired", false, "expired", false, 0.0d, null);
             }
         });
     }
 
+    /** With auto-cache off on throttled devices, the bridge refills a consumed slot itself. */
+    private static void refillAfterConsumed(int adType) {
+        if (DeviceProfile.isThrottled()) {
+            requestCache(adType);
+        }
+    }
+
     private static final class InitCallResult {
         final boolean waitForCallback;
 
@@ -1045,7 +1501,7 @@ public final class AppodealBridge {
         }
     }
 
-    private static InitCallResult callInitialize(Activity activity, String appKey) throws Exception {
+    private static InitCallResult callInitialize(Activity activity, String appKey, int generation) throws Exception {
         Throwable lastError = null;
         Method[] methods = Appodeal.class.getMethods();
 
@@ -1053,7 +1509,7 @@ public final class AppodealBridge {
         for (int pass = 0; pass < 2; pass++) {
             boolean requireCallback = pass == 0;
             for (Method method : methods) {
-                if (!"initialize".equals(method.getName()) || !Modifier.isStatic(method.getModifiers())) {
+                if (!ReflectionTargets.INITIALIZE.equals(method.getName()) || !Modifier.isStatic(method.getModifiers())) {
                     continue;
                 }
 
@@ -1070,7 +1526,7 @@ public final class AppodealBridge {
                 }
 
                 try {
-                    Object[] args = buildInitializeArgs(params, activity, appKey);
+                    Object[] args = buildInitializeArgs(params, activity, appKey, generation);
                     if (params.length == 4 && args[3] == null) {
                         Log.w(TAG, "initialize callback could not be created for signature: " + method.toString());
                         continue;
@@ -1126,7 +1582,7 @@ public final class AppodealBridge {
         return clazz.isArray() && int.class.equals(clazz.getComponentType());
     }
 
-    private static Object[] buildInitializeArgs(Class<?>[] params, Activity activity, String appKey) {
+    private static Object[] buildInitializeArgs(Class<?>[] params, Activity activity, String appKey, int generation) {
         Object[] args = new Object[params.length];
         args[0] = activity;
         args[1] = appKey;
@@ -1142,13 +1598,13 @@ public final class AppodealBridge {
         }
 
         if (params.length == 4) {
-            args[3] = createInitializationCallback(params[3]);
+            args[3] = createInitializationCallback(params[3], generation);
         }
 
         return args;
     }
 
-    private static Object createInitializationCallback(final Class<?> callbackType) {
+    private static Object createInitializationCallback(final Class<?> callbackType, final int generation) {
         if (callbackType == null) {
             return null;
         }
@@ -1185,7 +1641,7 @@ public final class AppodealBridge {
                         }
 
                         Log.i(TAG, "initialize callback finished: success=" + success + ", reason=" + reason);
-                        notifyInitOnce(success, reason);
+                        notifyInitOnce(generation, success, reason);
                         if (success) {
                             warmUpCacheNow("initialize_callback");
                         }
@@ -1196,11 +1652,11 @@ public final class AppodealBridge {
                         }
                         if (isRecoverableInitializationReason(reason)) {
                             Log.w(TAG, "initialize callback failed with non-fatal warning: " + reason);
-                            notifyInitOnce(true, reason);
+                            notifyInitOnce(generation, true, reason);
                             warmUpCacheNow("initialize_failed_non_fatal");
                         } else {
                             Log.e(TAG, "initialize callback failed: " + reason);
-                            notifyInitOnce(false, reason);
+                            notifyInitOnce(generation, false, reason);
                         }
                     }
 
@@ -1274,20 +1730,31 @@ public final class AppodealBridge {
         return cause != null ? cause : throwable;
     }
 
-    private static void preconfigureConsentState(Activity activity) {
+    /**
+     * Applies a persisted ConsentStatus to the SDK ahead of the consent info
+     * update. Only setters that take that status type are used; nothing is
+     * applied when the name no longer resolves or no such setter exists, so a
+     * cached snapshot never becomes a consent grant the user did not give.
+     */
+    private static void preconfigureConsentState(Activity activity, String statusName) {
         try {
             logConsentApiOnce();
-            Object status = resolveConsentStatusValue();
-            boolean applied = false;
+            Object status = resolveConsentStatusValue(statusName);
+            if (status == null) {
+                Log.w(TAG, "consent preconfigure skipped: unknown status " + statusName);
+                return;
+            }
 
+            boolean applied = false;
             applied |= tryApplyConsentOnAppodeal(activity, status);
             applied |= tryApplyConsentOnConsentManager(status);
             applied |= tryApplyLegacyConsentInformation(status);
 
             if (applied) {
-                Log.i(TAG, "consent preconfigured");
+                Log.i(TAG, "consent preconfigured: " + statusName);
+                refreshConsent("preconfigured");
             } else {
-                Log.w(TAG, "consent preconfigure did not find compatible API");
+                Log.w(TAG, "consent preconfigure skipped: no ConsentStatus setter");
             }
         } catch (Throwable throwable) {
             Log.w(TAG, "consent preconfigure skipped: " + throwable.getClass().getSimpleName());
@@ -1311,7 +1778,7 @@ public final class AppodealBridge {
         }
 
         try {
-            Class<?> consentManagerClass = Class.forName("com.appodeal.consent.ConsentManager");
+            Class<?> consentManagerClass = Class.forName(ReflectionTargets.CONSENT_MANAGER);
             for (Method method : consentManagerClass.getMethods()) {
                 String name = method.getName();
                 if (name.toLowerCase(Locale.US).contains("consent")) {
@@ -1322,41 +1789,24 @@ public final class AppodealBridge {
         }
     }
 
-    private static Object resolveConsentStatusValue() {
+    /** The ConsentStatus constant named {@code statusName}, or null. */
+    private static Object resolveConsentStatusValue(String statusName) {
+        if (statusName == null) {
+            return null;
+        }
+
         try {
-            Class<?> consentStatusClass = Class.forName("com.appodeal.consent.ConsentStatus");
+            Class<?> consentStatusClass = Class.forName(ReflectionTargets.CONSENT_STATUS);
             if (!consentStatusClass.isEnum()) {
                 return null;
             }
 
             @SuppressWarnings("unchecked")
             Class<? extends Enum> enumClass = (Class<? extends Enum>) consentStatusClass.asSubclass(Enum.class);
-
-            String[] preferred = new String[] {
-                "NotRequired",
-                "NOT_REQUIRED",
-                "NOTREQUIRED",
-                "Obtained",
-                "OBTAINED",
-                "Granted",
-                "GRANTED"
-            };
-
-            for (String name : preferred) {
-                try {
-                    return Enum.valueOf(enumClass, name);
-                } catch (IllegalArgumentException ignored) {
-                }
-            }
-
-            Object[] constants = enumClass.getEnumConstants();
-            if (constants != null && constants.length > 0) {
-                return constants[0];
-            }
+            return Enum.valueOf(enumClass, statusName);
         } catch (Throwable ignored) {
+            return null;
         }
-
-        return null;
     }
 
     private static boolean tryApplyConsentOnAppodeal(Activity activity, Object status) {
@@ -1376,7 +1826,7 @@ public final class AppodealBridge {
                 continue;
             }
 
-            Object[] args = buildConsentArgs(method.getParameterTypes(), activity, status);
+            Object[] args = buildStatusArgs(method.getParameterTypes(), activity, status);
             if (args == null) {
                 continue;
             }
@@ -1394,7 +1844,7 @@ public final class AppodealBridge {
 
     private static boolean tryApplyConsentOnConsentManager(Object status) {
         try {
-            Class<?> consentManagerClass = Class.forName("com.appodeal.consent.ConsentManager");
+            Class<?> consentManagerClass = Class.forName(ReflectionTargets.CONSENT_MANAGER);
             Object consentManager = obtainConsentManagerInstance(consentManagerClass);
             boolean applied = false;
 
@@ -1404,7 +1854,7 @@ public final class AppodealBridge {
                     continue;
                 }
 
-                Object[] args = buildConsentArgs(method.getParameterTypes(), null, status);
+                Object[] args = buildStatusArgs(method.getParameterTypes(), null, status);
                 if (args == null) {
                     continue;
                 }
@@ -1434,17 +1884,17 @@ public final class AppodealBridge {
         }
 
         try {
-            Class<?> consentManagerClass = Class.forName("com.appodeal.consent.ConsentManager");
+            Class<?> consentManagerClass = Class.forName(ReflectionTargets.CONSENT_MANAGER);
             Object consentManager = obtainConsentManagerInstance(consentManagerClass);
             if (consentManager == null) {
                 return false;
             }
 
-            Class<?> consentInfoClass = Class.forName("com.appodeal.consent.ConsentInformation");
+            Class<?> consentInfoClass = Class.forName(ReflectionTargets.CONSENT_INFORMATION);
             Object consentInfo = null;
 
             try {
-                Class<?> statusInfoClass = Class.forName("com.appodeal.consent.b");
+                Class<?> statusInfoClass = Class.forName(ReflectionTargets.CONSENT_STATUS_INFORMATION);
                 consentInfo = newInstanceForStatus(statusInfoClass, status);
             } catch (Throwable ignored) {
             }
@@ -1460,7 +1910,7 @@ public final class AppodealBridge {
             Method setConsentInfoMethod = null;
             try {
                 setConsentInfoMethod = consentManagerClass.getMethod(
-                    "setConsentInformation$consent_release",
+                    ReflectionTargets.SET_CONSENT_INFORMATION,
                     consentInfoClass
                 );
             } catch (NoSuchMethodException ignored) {
@@ -1488,7 +1938,7 @@ public final class AppodealBridge {
 
     private static Object obtainConsentManagerInstance(Class<?> consentManagerClass) {
         try {
-            Field instanceField = consentManagerClass.getField("INSTANCE");
+            Field instanceField = consentManagerClass.getField(ReflectionTargets.INSTANCE);
             Object value = instanceField.get(null);
             if (value != null) {
                 return value;
@@ -1506,15 +1956,27 @@ public final class AppodealBridge {
         return null;
     }
 
-    private static Object[] buildConsentArgs(Class<?>[] params, Activity activity, Object status) {
+    /**
+     * Arguments for a setter that takes the status plus optional Activity or
+     * Context parameters, or null for any other signature. Boolean, int and
+     * string consent setters are never called: their values would have to be
+     * made up rather than taken from the persisted status.
+     */
+    private static Object[] buildStatusArgs(Class<?>[] params, Activity activity, Object status) {
         if (params == null) {
             return null;
         }
 
         Object[] args = new Object[params.length];
+        boolean hasStatus = false;
         for (int i = 0; i < params.length; i++) {
             Class<?> param = params[i];
 
+            if (!hasStatus && param.isEnum() && param.isAssignableFrom(status.getClass())) {
+                args[i] = status;
+                hasStatus = true;
+                continue;
+            }
             if (activity != null && Activity.class.isAssignableFrom(param)) {
                 args[i] = activity;
                 continue;
@@ -1523,73 +1985,11 @@ public final class AppodealBridge {
                 args[i] = activity.getApplicationContext();
                 continue;
             }
-            if (status != null && param.isAssignableFrom(status.getClass())) {
-                args[i] = status;
-                continue;
-            }
-            if (param.isEnum()) {
-                Object enumValue = resolveEnumValue(param);
-                if (enumValue == null) {
-                    return null;
-                }
-                args[i] = enumValue;
-                continue;
-            }
-            if (Boolean.TYPE.equals(param) || Boolean.class.equals(param)) {
-                args[i] = Boolean.TRUE;
-                continue;
-            }
-            if (Integer.TYPE.equals(param) || Integer.class.equals(param)) {
-                args[i] = Integer.valueOf(1);
-                continue;
-            }
-            if (Long.TYPE.equals(param) || Long.class.equals(param)) {
-                args[i] = Long.valueOf(1L);
-                continue;
-            }
-            if (String.class.equals(param)) {
-                args[i] = "granted";
-                continue;
-            }
 
             return null;
         }
 
-        return args;
-    }
-
-    private static Object resolveEnumValue(Class<?> enumClass) {
-        try {
-            @SuppressWarnings("unchecked")
-            Class<? extends Enum> typed = (Class<? extends Enum>) enumClass.asSubclass(Enum.class);
-
-            String[] preferred = new String[] {
-                "NotRequired",
-                "NOT_REQUIRED",
-                "NOTREQUIRED",
-                "Obtained",
-                "OBTAINED",
-                "Granted",
-                "GRANTED",
-                "True",
-                "TRUE"
-            };
-
-            for (String name : preferred) {
-                try {
-                    return Enum.valueOf(typed, name);
-                } catch (IllegalArgumentException ignored) {
-                }
-            }
-
-            Object[] constants = typed.getEnumConstants();
-            if (constants != null && constants.length > 0) {
-                return constants[0];
-            }
-        } catch (Throwable ignored) {
-        }
-
-        return null;
+        return hasStatus ? args : null;
     }
 
     private static Object newInstanceForStatus(Class<?> clazz, Object status) {
@@ -1635,8 +2035,8 @@ public final class AppodealBridge {
 
         // Appodeal log level API has changed between SDK versions; use reflection for compatibility.
         try {
-            Class<?> logLevelClass = Class.forName("com.appodeal.ads.LogLevel");
-            Method setLogLevelMethod = Appodeal.class.getMethod("setLogLevel", logLevelClass);
+            Class<?> logLevelClass = Class.forName(ReflectionTargets.LOG_LEVEL);
+            Method setLogLevelMethod = Appodeal.class.getMethod(ReflectionTargets.SET_LOG_LEVEL, logLevelClass);
             @SuppressWarnings("unchecked")
             Class<? extends Enum> enumClass = (Class<? extends Enum>) logLevelClass.asSubclass(Enum.class);
             Object enumValue = Enum.valueOf(enumClass, enumName);
@@ -1646,33 +2046,69 @@ public final class AppodealBridge {
         }
 
         try {
-            Method setLogLevelStringMethod = Appodeal.class.getMethod("setLogLevel", String.class);
+            Method setLogLevelStringMethod = Appodeal.class.getMethod(ReflectionTargets.SET_LOG_LEVEL, String.class);
             setLogLevelStringMethod.invoke(null, normalized);
         } catch (Throwable ignored) {
         }
     }
 
-    private static void configureAutoCache() {
-        try {
-            Method setAutoCacheMethod = Appodeal.class.getMethod("setAutoCache", int.class, boolean.class);
-            setAutoCacheMethod.invoke(null, Appodeal.INTERSTITIAL, Boolean.TRUE);
-            setAutoCacheMethod.invoke(null, Appodeal.REWARDED_VIDEO, Boolean.TRUE);
+    static void configureAutoCache() {
+        // Types taken over by hint_upcoming() stay under the prefetch scheduler,
+        // and nothing auto-caches while memory pressure is high or the
+        // device profile serializes loading.
+        boolean paused = MemoryPressureMonitor.isCachingPaused() || DeviceProfile.isThrottled();
+        boolean interstitial = setAutoCache(Appodeal.INTERSTITIAL, !paused && !PrefetchScheduler.isManaged(Appodeal.INTERSTITIAL));
+        boolean rewarded = setAutoCache(Appodeal.REWARDED_VIDEO, !paused && !PrefetchScheduler.isManaged(Appodeal.REWARDED_VIDEO));
+        if (interstitial && rewarded) {
             Log.i(TAG, "auto_cache configured");
+        }
+    }
+
+    static boolean setAutoCache(int adType, boolean enabled) {
+        try {
+            Method setAutoCacheMethod = Appodeal.class.getMethod(ReflectionTargets.SET_AUTO_CACHE, int.class, boolean.class);
+            setAutoCacheMethod.invoke(null, adType, Boolean.valueOf(enabled));
+            return true;
         } catch (Throwable ignored) {
+            return false;
         }
     }
 
     private static void warmUpCacheNow(String reason) {
+        if (!NetworkMonitor.isOnline()) {
+            // The reconnect callback runs one warmup for everything dropped here.
+            NetworkMonitor.noteSuspendedWarmup();
+            Log.i(TAG, "cache warmup suspended (offline): " + reason);
+            return;
+        }
+
         try {
-            invokeCacheForType(Appodeal.INTERSTITIAL);
-            invokeCacheForType(Appodeal.REWARDED_VIDEO);
+            // While a show_*_when_ready waits, only the awaited type is cached so it gets the bandwidth.
+            // Types managed by hint_upcoming() are only cached around their hinted moment.
+            // Background rewarded (video) warmups wait for an unmetered link.
+            // Under memory pressure only awaited types are cached.
+            boolean background = sInterstitialShowWaiter == null && sRewardedShowWaiter == null
+                && !MemoryPressureMonitor.isCachingPaused();
+            if ((background && PrefetchScheduler.allowsWarmup(Appodeal.INTERSTITIAL)) || sInterstitialShowWaiter != null) {
+                requestCache(Appodeal.INTERSTITIAL);
+            }
+            if ((background && !NetworkMonitor.isMetered() && PrefetchScheduler.allowsWarmup(Appodeal.REWARDED_VIDEO))
+                || sRewardedShowWaiter != null) {
+                requestCache(Appodeal.REWARDED_VIDEO);
+            }
             Log.i(TAG, "cache warmup requested: " + reason);
         } catch (Throwable ignored) {
         }
     }
 
     private static void scheduleCacheWarmup(final String reason) {
-        MAIN_HANDLER.postDelayed(new Runnable() {
+        if (!NetworkMonitor.isOnline()) {
+            NetworkMonitor.noteSuspendedWarmup();
+            Log.i(TAG, "cache retry suspended (offline): " + reason);
+            return;
+        }
+
+        postDelayedOnMainThread("cacheWarmup", new Runnable() {
             @Override
             public void run() {
                 warmUpCacheNow(reason);
@@ -1680,9 +2116,66 @@ public final class AppodealBridge {
         }, CACHE_RETRY_DELAY_MS);
     }
 
-    private static void invokeCacheForType(int adType) {
+    /** Restores auto-cache and refills the cache once memory pressure has cleared. Main thread. */
+    static void onMemoryPressureCleared() {
+        configureAutoCache();
+        warmUpCacheNow("memory_pressure_cleared");
+    }
+
+    /** True if {@code adType} is awaited by show_*_when_ready or hinted to show shortly. */
+    static boolean isShowImminent(int adType) {
+        return getShowWaiter(adType) != null || PrefetchScheduler.isShowImminent(adType);
+    }
+
+    /**
+     * Asks the SDK to release a cached creative through Appodeal.destroy(int).
+     * That API targets banner and MREC; for full-screen types it may leave the
+     * creative in place, so the drop only counts when isLoaded turns false.
+     */
+    static boolean destroyCachedCreative(int adType) {
+        boolean dropped = false;
+        try {
+            Method destroyMethod = Appodeal.class.getMethod(ReflectionTargets.DESTROY, int.class);
+            destroyMethod.invoke(null, Integer.valueOf(adType));
+            dropped = !Appodeal.isLoaded(adType);
+            if (dropped) {
+                Log.w(TAG, "dropped cached " + adTypeLabel(adType) + " under memory pressure");
+            } else {
+                Log.w(TAG, "drop cached " + adTypeLabel(adType) + " not supported: still loaded after destroy");
+            }
+        } catch (Throwable throwable) {
+            Log.w(TAG, "drop cached " + adTypeLabel(adType) + " unavailable: " + throwable.getClass().getSimpleName());
+        }
+        BridgeState.publish();
+        return dropped;
+    }
+
+    /** Single coalesced warmup after the device comes back online. Main thread. */
+    static void onNetworkReconnected() {
+        warmUpCacheNow("network_available");
+    }
+
+    /** Caches {@code adType}, through the serialized queue on throttled devices. */
+    static void requestCache(int adType) {
+        if (DeviceProfile.isThrottled()) {
+            DeviceProfile.enqueueCache(adType);
+        } else {
+            invokeCacheForType(adType);
+        }
+    }
+
+    static void invokeCacheForType(int adType) {
+        BridgeTrace.begin("cache." + adTypeLabel(adType));
         try {
-            Method cacheMethod = Appodeal.class.getMethod("cache", int.class);
+            invokeCacheMethod(adType);
+        } finally {
+            BridgeTrace.end();
+        }
+    }
+
+    private static void invokeCacheMethod(int adType) {
+        try {
+            Method cacheMethod = Appodeal.class.getMethod(ReflectionTargets.CACHE, int.class);
             cacheMethod.invoke(null, Integer.valueOf(adType));
             return;
         } catch (Throwable ignored) {
@@ -1694,7 +2187,7 @@ public final class AppodealBridge {
         }
 
         try {
-            Method cacheMethod = Appodeal.class.getMethod("cache", Context.class, int.class);
+            Method cacheMethod = Appodeal.class.getMethod(ReflectionTargets.CACHE, Context.class, int.class);
             cacheMethod.invoke(null, activity, Integer.valueOf(adType));
         } catch (Throwable ignored) {
         }
@@ -1706,7 +2199,7 @@ public final class AppodealBridge {
         }
 
         logAdapterClassProbe();
-        logAdapterAssetsProbe(activity);
+        AdapterPresets.probe(activity);
     }
 
     private static void logAdapterClassProbe() {
@@ -1726,62 +2219,12 @@ public final class AppodealBridge {
         }
     }
 
-    private static void logAdapterAssetsProbe(Activity activity) {
-        if (activity == null) {
-            Log.w(TAG, "adapter assets probe skipped: activity_is_null");
-            return;
-        }
-
-        try {
-            AssetManager assets = activity.getAssets();
-            String[] files = assets.list("apd_adapters");
-            if (files == null || files.length == 0) {
-                Log.w(TAG, "adapter assets missing: apd_adapters");
-                return;
-            }
-
-            for (String file : files) {
-                Log.i(TAG, "adapter asset found: apd_adapters/" + file);
-                logAssetFirstLine(assets, "apd_adapters/" + file);
-            }
-        } catch (Throwable throwable) {
-            Log.w(TAG, "adapter assets probe failed: " + throwable.getClass().getSimpleName());
-        }
-    }
-
-    private static void logAssetFirstLine(AssetManager assets, String path) {
-        InputStream stream = null;
-        BufferedReader reader = null;
-        try {
-            stream = assets.open(path);
-            reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
-            String firstLine = reader.readLine();
-            if (firstLine != null) {
-                Log.i(TAG, "adapter asset payload: " + firstLine);
-            }
-        } catch (Throwable ignored) {
-        } finally {
-            try {
-                if (reader != null) {
-                    reader.close();
-                }
-            } catch (Throwable ignored) {
-            }
-            try {
-                if (stream != null) {
-                    stream.close();
-                }
-            } catch (Throwable ignored) {
-            }
-        }
-    }
-
     private static Activity getActivity() {
-        Activity activity = tryGetDefoldActivity("com.dynamo.android.DefoldActivity");
+        Activity activity = tryGetDefoldActivity(ReflectionTargets.DEFOLD_ACTIVITY);
         if (activity != null) {
             return activity;
         }
-        activity = tryGetDefoldActivity("com.defold.android.DefoldActivity");
+        activity = tryGetDefoldActivity(ReflectionTargets.DEFOLD_ACTIVITY_LEGACY);
         if (activity != null) {
             return activity;
         }
@@ -1794,9 +2237,9 @@ public final class AppodealBridge {
             Class<?> clazz = Class.forName(className, false, classLoader);
             Method method;
             try {
-                method = clazz.getMethod("getActivity");
+                method = clazz.getMethod(ReflectionTargets.GET_ACTIVITY);
             } catch (NoSuchMethodException noPublicMethod) {
-                method = clazz.getDeclaredMethod("getActivity");
+                method = clazz.getDeclaredMethod(ReflectionTargets.GET_ACTIVITY);
                 method.setAccessible(true);
             }
             Object value = method.invoke(null);
@@ -1810,15 +2253,15 @@ public final class AppodealBridge {
 
     private static Activity tryGetFromActivityThread() {
         try {
-            Class<?> activityThreadClass = Class.forName("android.app.ActivityThread");
-            Method currentActivityThreadMethod = activityThreadClass.getDeclaredMethod("currentActivityThread");
+            Class<?> activityThreadClass = Class.forName(ReflectionTargets.ACTIVITY_THREAD);
+            Method currentActivityThreadMethod = activityThreadClass.getDeclaredMethod(ReflectionTargets.ACTIVITY_THREAD_CURRENT);
             currentActivityThreadMethod.setAccessible(true);
             Object activityThread = currentActivityThreadMethod.invoke(null);
             if (activityThread == null) {
                 return null;
             }
 
-            Field activitiesField = activityThreadClass.getDeclaredField("mActivities");
+            Field activitiesField = activityThreadClass.getDeclaredField(ReflectionTargets.ACTIVITY_THREAD_ACTIVITIES);
             activitiesField.setAccessible(true);
             Object activitiesObject = activitiesField.get(activityThread);
             if (!(activitiesObject instanceof Map)) {
@@ -1832,7 +2275,7 @@ public final class AppodealBridge {
                 }
 
                 Class<?> recordClass = record.getClass();
-                Field activityField = recordClass.getDeclaredField("activity");
+                Field activityField = recordClass.getDeclaredField(ReflectionTargets.ACTIVITY_THREAD_RECORD_ACTIVITY);
                 activityField.setAccessible(true);
                 Object activity = activityField.get(record);
                 if (activity instanceof Activity) {
@@ -1844,32 +2287,77 @@ public final class AppodealBridge {
         return null;
     }
 
-    private static void runOnMainThread(Runnable runnable) {
+    private static void runOnMainThread(String name, Runnable runnable) {
         if (runnable == null) {
             return;
         }
+        Runnable timed = BridgeTaskMonitor.wrap(name, runnable, 0L);
         if (Looper.myLooper() == Looper.getMainLooper()) {
-            runnable.run();
+            timed.run();
         } else {
-            MAIN_HANDLER.post(runnable);
+            MAIN_HANDLER.post(timed);
         }
     }
 
-    private static void runOnUiThread(Activity activity, Runnable runnable) {
+    private static void runOnUiThread(Activity activity, String name, Runnable runnable) {
         if (activity == null || runnable == null) {
             return;
         }
-        activity.runOnUiThread(runnable);
+        activity.runOnUiThread(BridgeTaskMonitor.wrap(name, runnable, 0L));
     }
 
-    private static native void nativeOnInit(boolean success, String reason);
-    private static native void nativeOnInterstitialEvent(String event, boolean success, String reason);
-    private static native void nativeOnRewardedEvent(
+    static void postDelayedOnMainThread(String name, Runnable runnable, long delayMs) {
+        if (runnable == null) {
+            return;
+        }
+        MAIN_HANDLER.postDelayed(BridgeTaskMonitor.wrap(name, runnable, delayMs), delayMs);
+    }
+
+    /**
+     * Tags the event with its show session; stale presentation callbacks and
+     * events filtered out by Lua stop here. The session sees every event.
+     */
+    private static void sendInterstitialEvent(String event, boolean success, String reason) {
+        long sourceNanos = SystemClock.elapsedRealtimeNanos();
+        int session = ShowSessions.onEvent(Appodeal.INTERSTITIAL, event);
+        if (session >= 0 && EventFilter.wants(event)) {
+            nativeOnInterstitialEvent(event, success, reason, session, sourceNanos);
+        }
+        BridgeState.publish();
+    }
+
+    private static void sendRewardedEvent(
         String event,
         boolean success,
         String reason,
         boolean rewarded,
         double amount,
         String currency
+    ) {
+        long sourceNanos = SystemClock.elapsedRealtimeNanos();
+        int session = ShowSessions.onEvent(Appodeal.REWARDED_VIDEO, event);
+        if (session >= 0 && EventFilter.wants(event)) {
+            nativeOnRewardedEvent(event, success, reason, rewarded, amount, currency, session, sourceNanos);
+        }
+        BridgeState.publish();
+    }
+
+    /** Called by {@link BridgeState} with the changed snapshot. */
+    static void pushState(long version, int flags, int pendingRewards, String consent) {
+        nativeOnStateChanged(version, flags, pendingRewards, consent);
+    }
+
+    private static native void nativeOnInit(boolean success, String reason, long sourceNanos);
+    private static native void nativeOnInterstitialEvent(String event, boolean success, String reason, int session, long sourceNanos);
+    private static native void nativeOnRewardedEvent(
+        String event,
+        boolean success,
+        String reason,
+        boolean rewarded,
+        double amount,
+        String currency,
+        int session,
+        long sourceNanos
     );
+    private static native void nativeOnStateChanged(long version, int flags, int pendingRewards, String consent);
 }
@@ -0,0 +1,134 @@
+package com.defold.appodeal;
+
+import com.appodeal.ads.Appodeal;
+
+/**
+ * Mirrors bridge state into a native snapshot that appodeal.get_state()
+ * reads without a JNI call. {@link #publish} recomputes the flags at each
+ * point that can change them (ad events including a background expiry,
+ * memory-pressure drops, init, consent, reward journal) and
+ * pushes only when something differs from the last push.
+ *
+ * <p>{@link #LOCK} only guards the fields below; the SDK, session and journal
+ * reads and the JNI push run outside it, since publish is called from SDK
+ * callback threads, the journal thread and the main thread. Each snapshot
+ * carries a version taken when it starts, and both this class and the
+ * native side drop a snapshot older than one already pushed.
+ *
+ * <p>Flag values are mirrored in appodeal.cpp.
+ */
+final class BridgeState {
+    static final int INIT_PENDING = 1;
+    static final int INIT_DONE = 1 << 1;
+    static final int INIT_FAILED = 1 << 2;
+    static final int INTERSTITIAL_READY = 1 << 3;
+    static final int REWARDED_READY = 1 << 4;
+    static final int INTERSTITIAL_SHOWING = 1 << 5;
+    static final int REWARDED_SHOWING = 1 << 6;
+    static final int CAN_SHOW_ADS = 1 << 7;
+
+    private static final Object LOCK = new Object();
+    private static int sInitFlags = 0;
+    private static String sConsent = null;
+    private static boolean sCanShowAds = false;
+
+    private static long sVersion = 0L;
+    private static long sPushedVersion = 0L;
+    private static int sPushedFlags = -1;
+    private static int sPushedRewards = -1;
+    private static String sPushedConsent = null;
+    private static long sPushes = 0L;
+
+    private BridgeState() {
+    }
+
+    static void onInitStarted() {
+        synchronized (LOCK) {
+            sInitFlags = INIT_PENDING;
+        }
+        publish();
+    }
+
+    static void onInitFinished(boolean success) {
+        synchronized (LOCK) {
+            sInitFlags = success ? INIT_DONE : INIT_FAILED;
+        }
+        publish();
+    }
+
+    /** {@code status} is the lower-case ConsentStatus name. */
+    static void onConsent(String status, boolean canShowAds) {
+        synchronized (LOCK) {
+            sConsent = status;
+            sCanShowAds = canShowAds;
+        }
+        publish();
+    }
+
+    static void publish() {
+        int initFlags;
+        boolean canShowAds;
+        String consent;
+        long version;
+        synchronized (LOCK) {
+            initFlags = sInitFlags;
+            canShowAds = sCanShowAds;
+            consent = sConsent;
+            version = ++sVersion;
+        }
+
+        int flags = initFlags;
+        if (canShowAds) {
+            flags |= CAN_SHOW_ADS;
+        }
+        if ((initFlags & INIT_DONE) != 0) {
+            if (isLoaded(Appodeal.INTERSTITIAL)) {
+                flags |= INTERSTITIAL_READY;
+            }
+            if (isLoaded(Appodeal.REWARDED_VIDEO)) {
+                flags |= REWARDED_READY;
+            }
+        }
+        if (ShowSessions.isShowing(Appodeal.INTERSTITIAL)) {
+            flags |= INTERSTITIAL_SHOWING;
+        }
+        if (ShowSessions.isShowing(Appodeal.REWARDED_VIDEO)) {
+            flags |= REWARDED_SHOWING;
+        }
+        int rewards = RewardJournal.pendingCount();
+
+        synchronized (LOCK) {
+            // A publish that started later already compared or pushed newer state.
+            if (version < sPushedVersion) {
+                return;
+            }
+            sPushedVersion = version;
+            boolean consentChanged = consent == null ? sPushedConsent != null : !consent.equals(sPushedConsent);
+            if (flags == sPushedFlags && rewards == sPushedRewards && !consentChanged) {
+                return;
+            }
+            sPushedFlags = flags;
+            sPushedRewards = rewards;
+            sPushedConsent = consent;
+            sPushes++;
+        }
+        AppodealBridge.pushState(version, flags, rewards, consent);
+    }
+
+    private static boolean isLoaded(int adType) {
+        try {
+            return Appodeal.isLoaded(adType);
+        } catch (Throwable ignored) {
+            return false;
+        }
+    }
+
+    static void appendStats(StringBuilder out) {
+        synchronized (LOCK) {
+            out.append("state")
+                .append("\tflags=").append(Math.max(sPushedFlags, 0))
+                .append("\tpushes=").append(sPushes)
+                .append('\n');
+        }
+    }
+}
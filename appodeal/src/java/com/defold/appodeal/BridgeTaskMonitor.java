@@ -0,0 +1,162 @@
+package com.defold.appodeal;
+
+import android.util.Log;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Times every Runnable the bridge posts to the main looper. Defold renders
+ * from its own thread but shares the UI thread for input and lifecycle, so
+ * long bridge tasks there show up as frame hitches.
+ */
+final class BridgeTaskMonitor {
+    private static final String TAG = "DefoldAppodeal";
+    static final int DEFAULT_BUDGET_MS = 8;
+    /** Upper bounds (inclusive, ms) of histogram buckets; the last bucket is open-ended. */
+    static final long[] BUCKET_BOUNDS_MS = new long[] { 1, 2, 4, 8, 16, 32, 64, 128, 256 };
+
+    private static final Map<String, TaskStats> sStats = new LinkedHashMap<String, TaskStats>();
+    private static volatile int sBudgetMs = DEFAULT_BUDGET_MS;
+    private static long sOverBudgetTotal = 0L;
+
+    private BridgeTaskMonitor() {
+    }
+
+    private static final class TaskStats {
+        long count;
+        long overBudget;
+        long totalRunUs;
+        long maxRunUs;
+        long totalQueueUs;
+        long maxQueueUs;
+        final long[] runHistogram = new long[BUCKET_BOUNDS_MS.length + 1];
+        final long[] queueHistogram = new long[BUCKET_BOUNDS_MS.length + 1];
+    }
+
+    static void setBudgetMs(int budgetMs) {
+        sBudgetMs = budgetMs > 0 ? budgetMs : DEFAULT_BUDGET_MS;
+        Log.i(TAG, "main thread budget set to " + sBudgetMs + "ms");
+    }
+
+    static int getBudgetMs() {
+        return sBudgetMs;
+    }
+
+    /**
+     * Wraps a task so its queue delay (time past its due time) and run
+     * duration are recorded under {@code name} when it runs.
+     */
+    static Runnable wrap(final String name, final Runnable task, final long delayMs) {
+        if (task == null) {
+            return null;
+        }
+
+        final long dueAtNs = System.nanoTime() + Math.max(0L, delayMs) * 1000000L;
+        return new Runnable() {
+            @Override
+            public void run() {
+                long startNs = System.nanoTime();
+                BridgeTrace.begin("task." + name);
+                try {
+                    task.run();
+                } finally {
+                    BridgeTrace.end();
+                    long endNs = System.nanoTime();
+                    record(name, Math.max(0L, startNs - dueAtNs) / 1000L, (endNs - startNs) / 1000L);
+                }
+            }
+        };
+    }
+
+    private static void record(String name, long queueUs, long runUs) {
+        int budgetMs = sBudgetMs;
+        boolean overBudget = runUs > budgetMs * 1000L;
+
+        synchronized (sStats) {
+            TaskStats stats = sStats.get(name);
+            if (stats == null) {
+                stats = new TaskStats();
+                sStats.put(name, stats);
+            }
+            stats.count++;
+            stats.totalRunUs += runUs;
+            stats.totalQueueUs += queueUs;
+            stats.maxRunUs = Math.max(stats.maxRunUs, runUs);
+            stats.maxQueueUs = Math.max(stats.maxQueueUs, queueUs);
+            stats.runHistogram[bucketFor(runUs)]++;
+            stats.queueHistogram[bucketFor(queueUs)]++;
+            if (overBudget) {
+                stats.overBudget++;
+                sOverBudgetTotal++;
+            }
+        }
+
+        if (overBudget) {
+            Log.w(TAG, "main thread task over budget: " + name
+                + " run=" + formatMs(runUs) + "ms"
+                + " queue=" + formatMs(queueUs) + "ms"
+                + " budget=" + budgetMs + "ms");
+        }
+    }
+
+    private static int bucketFor(long valueUs) {
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            if (valueUs <= BUCKET_BOUNDS_MS[i] * 1000L) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MS.length;
+    }
+
+    /** Appends the collected stats in the line format read by {@code AppodealBridge.getBridgeStats}. */
+    static void appendStats(StringBuilder out) {
+        out.append("main_thread")
+            .append("\tbudget_ms=").append(sBudgetMs)
+            .append("\tbucket_bounds_ms=").append(joinBounds());
+
+        synchronized (sStats) {
+            out.append("\tover_budget=").append(sOverBudgetTotal).append('\n');
+
+            for (Map.Entry<String, TaskStats> entry : sStats.entrySet()) {
+                TaskStats stats = entry.getValue();
+                out.append("main_thread.tasks.").append(entry.getKey())
+                    .append("\tcount=").append(stats.count)
+                    .append("\tover_budget=").append(stats.overBudget)
+                    .append("\ttotal_run_ms=").append(formatMs(stats.totalRunUs))
+                    .append("\tmax_run_ms=").append(formatMs(stats.maxRunUs))
+                    .append("\ttotal_queue_ms=").append(formatMs(stats.totalQueueUs))
+                    .append("\tmax_queue_ms=").append(formatMs(stats.maxQueueUs))
+                    .append("\trun_hist=").append(joinCounts(stats.runHistogram))
+                    .append("\tqueue_hist=").append(joinCounts(stats.queueHistogram))
+                    .append('\n');
+            }
+        }
+    }
+
+    private static String joinBounds() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(BUCKET_BOUNDS_MS[i]);
+        }
+        return builder.toString();
+    }
+
+    private static String joinCounts(long[] counts) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(counts[i]);
+        }
+        return builder.toString();
+    }
+
+    private static String formatMs(long valueUs) {
+        return String.format(Locale.US, "%.3f", valueUs / 1000.0d);
+    }
+}
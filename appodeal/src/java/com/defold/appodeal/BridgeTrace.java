@@ -0,0 +1,60 @@
+package com.defold.appodeal;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * android.os.Trace sections for system traces (Perfetto, systrace). Every
+ * section is prefixed with "Appodeal:" so the bridge's share of main-thread
+ * time can be filtered in one query. Async sections, used for flows that span
+ * several tasks, need API 29 and are skipped on older devices.
+ */
+final class BridgeTrace {
+    private static final String PREFIX = "Appodeal:";
+    /** android.os.Trace rejects section names longer than this. */
+    private static final int MAX_NAME_LENGTH = 127;
+
+    private BridgeTrace() {
+    }
+
+    /** Begins a section on the current thread; always pair with {@link #end} in a finally block. */
+    static void begin(String name) {
+        try {
+            Trace.beginSection(sectionName(name));
+        } catch (Throwable ignored) {
+        }
+    }
+
+    static void end() {
+        try {
+            Trace.endSection();
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /** Begins an async section; {@code cookie} must match the later {@link #endAsync} call. */
+    static void beginAsync(String name, int cookie) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return;
+        }
+        try {
+            Trace.beginAsyncSection(sectionName(name), cookie);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    static void endAsync(String name, int cookie) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return;
+        }
+        try {
+            Trace.endAsyncSection(sectionName(name), cookie);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private static String sectionName(String name) {
+        String full = PREFIX + name;
+        return full.length() > MAX_NAME_LENGTH ? full.substring(0, MAX_NAME_LENGTH) : full;
+    }
+}
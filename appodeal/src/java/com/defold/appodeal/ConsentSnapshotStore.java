@@ -0,0 +1,79 @@
+package com.defold.appodeal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Last resolved consent status, persisted across launches so a returning user
+ * can have consent applied before the network consent update completes.
+ */
+final class ConsentSnapshotStore {
+    private static final String TAG = "DefoldAppodeal";
+    private static final String PREFS_NAME = "defold_appodeal_consent";
+    private static final String KEY_APP_KEY = "app_key";
+    private static final String KEY_STATUS = "status";
+    private static final String KEY_CAN_SHOW_ADS = "can_show_ads";
+    private static final String KEY_SAVED_AT_MS = "saved_at_ms";
+    /** Snapshots older than this are ignored and the launch waits for a fresh update. */
+    static final long TTL_MS = 24L * 60L * 60L * 1000L;
+
+    private ConsentSnapshotStore() {
+    }
+
+    static final class Snapshot {
+        final String status;
+        final boolean canShowAds;
+        final long savedAtMs;
+
+        Snapshot(String status, boolean canShowAds, long savedAtMs) {
+            this.status = status;
+            this.canShowAds = canShowAds;
+            this.savedAtMs = savedAtMs;
+        }
+    }
+
+    /** Returns the stored snapshot for {@code appKey}, or null if missing or expired. */
+    static Snapshot load(Context context, String appKey) {
+        if (context == null || appKey == null) {
+            return null;
+        }
+
+        try {
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            if (!appKey.equals(prefs.getString(KEY_APP_KEY, null))) {
+                return null;
+            }
+
+            String status = prefs.getString(KEY_STATUS, null);
+            long savedAtMs = prefs.getLong(KEY_SAVED_AT_MS, 0L);
+            long ageMs = System.currentTimeMillis() - savedAtMs;
+            if (status == null || savedAtMs <= 0L || ageMs < 0L || ageMs > TTL_MS) {
+                return null;
+            }
+
+            return new Snapshot(status, prefs.getBoolean(KEY_CAN_SHOW_ADS, false), savedAtMs);
+        } catch (Throwable throwable) {
+            Log.w(TAG, "consent snapshot load failed: " + throwable.getClass().getSimpleName());
+            return null;
+        }
+    }
+
+    static void save(Context context, String appKey, String status, boolean canShowAds) {
+        if (context == null || appKey == null || status == null) {
+            return;
+        }
+
+        try {
+            context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(KEY_APP_KEY, appKey)
+                .putString(KEY_STATUS, status)
+                .putBoolean(KEY_CAN_SHOW_ADS, canShowAds)
+                .putLong(KEY_SAVED_AT_MS, System.currentTimeMillis())
+                .apply();
+        } catch (Throwable throwable) {
+            Log.w(TAG, "consent snapshot save failed: " + throwable.getClass().getSimpleName());
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package com.defold.appodeal;
+
+/**
+ * Consent flow as an explicit state machine. It is driven by events (consent
+ * info update result, window focus, activity lifecycle, form callbacks and
+ * one-shot timeouts) and shows the form as soon as every precondition holds,
+ * instead of re-checking flags on a timer.
+ *
+ * <p>Not thread-safe: all events must be delivered on one thread (the bridge
+ * uses the main looper). Has no Android dependencies so it can run on a
+ * plain JVM with a fake {@link Effects}.
+ */
+final class ConsentStateMachine {
+    /** Consent info (ConsentManager.requestConsentInfoUpdate) lifecycle. */
+    enum InfoState {
+        UNKNOWN,
+        UPDATING,
+        UPDATED,
+        FAILED
+    }
+
+    /** Consent form lifecycle. */
+    enum FormState {
+        /** No form requested. */
+        IDLE,
+        /** Show requested, waiting for preconditions. */
+        PENDING,
+        /** Load-and-show call issued, no callback yet. */
+        REQUESTED,
+        /** Form reported open. */
+        SHOWING
+    }
+
+    /** Background consent form load requested by preload_consent_form(). */
+    enum PreloadState {
+        NONE,
+        LOADING,
+        READY
+    }
+
+    interface Effects {
+        /** Starts a consent info update; the result must come back via {@link #onInfoUpdateFinished}. */
+        void requestConsentInfoUpdate();
+
+        /** True when the SDK already holds a usable consent status (e.g. cached from a previous session). */
+        boolean isConsentStatusKnown();
+
+        /**
+         * Loads and shows the form. Callbacks must be reported with the given
+         * request id. Returns false if the consent API is unavailable.
+         */
+        boolean showForm(int requestId);
+
+        /**
+         * Loads the form without showing it. The result must come back via
+         * {@link #onFormLoaded} or {@link #onFormLoadFailed} with the given id.
+         * Returns false if the consent API is unavailable.
+         */
+        boolean loadForm(int preloadId);
+
+        /** Shows the form delivered by {@link #onFormLoaded}; callbacks as for {@link #showForm}. */
+        boolean showPreloadedForm(int requestId);
+
+        void discardPreloadedForm();
+
+        /** Current consent status as text; a preload is invalidated when it changes. */
+        String currentConsentStatus();
+
+        void postDelayed(String name, Runnable task, long delayMs);
+
+        void log(String message);
+    }
+
+    /** Minimum time after initialize before the form may cover the game activity. */
+    static final long MIN_ACTIVITY_STABLE_MS = 350L;
+    /** How long a form request may stay silent while the game window has focus. */
+    static final long NO_CALLBACK_TIMEOUT_MS = 5000L;
+    /** How long a silent form request is tolerated while something else holds focus. */
+    static final long UNFOCUSED_GIVE_UP_MS = 30000L;
+    /** A show request still waiting for its preconditions after this long is dropped. */
+    static final long PENDING_GIVE_UP_MS = 30000L;
+    /** Delay before the first consent info retry; doubled for each further retry. */
+    static final long INFO_RETRY_BASE_DELAY_MS = 1000L;
+    /** A preload silent for this long is abandoned; a pending show then loads the form itself. */
+    static final long PRELOAD_TIMEOUT_MS = 8000L;
+    static final int MAX_FORM_ATTEMPTS = 5;
+    static final int MAX_INFO_RETRIES = 3;
+
+    private final Effects mEffects;
+    private InfoState mInfoState = InfoState.UNKNOWN;
+    private FormState mFormState = FormState.IDLE;
+    private PreloadState mPreloadState = PreloadState.NONE;
+    private boolean mPreloadRequested = false;
+    private int mPreloadId = 0;
+    private String mPreloadStatus = null;
+    private boolean mHasWindowFocus = false;
+    private boolean mActivityStable = false;
+    private boolean mActivityAlive = true;
+    private int mFormAttempts = 0;
+    private int mInfoRetries = 0;
+    private int mRequestId = 0;
+    /** Bumped by initialize(); 0 until the first one, when there is no startup to wait out. */
+    private int mSessionId = 0;
+    /** Bumped each time the form enters PENDING, so an older give-up timer does nothing. */
+    private int mPendingSerial = 0;
+    private boolean mInfoRetryScheduled = false;
+    private boolean mWaitLogged = false;
+
+    ConsentStateMachine(Effects effects) {
+        mEffects = effects;
+    }
+
+    InfoState getInfoState() {
+        return mInfoState;
+    }
+
+    FormState getFormState() {
+        return mFormState;
+    }
+
+    PreloadState getPreloadState() {
+        return mPreloadState;
+    }
+
+    /** A new initialize() call: forget previous consent progress and start a fresh info update. */
+    void onInitialize(boolean hasWindowFocus) {
+        mSessionId++;
+        mRequestId++;
+        mInfoState = InfoState.UNKNOWN;
+        mFormState = FormState.IDLE;
+        mHasWindowFocus = hasWindowFocus;
+        mActivityStable = false;
+        mActivityAlive = true;
+        mFormAttempts = 0;
+        mInfoRetries = 0;
+        discardPreload();
+
+        final int sessionId = mSessionId;
+        mEffects.postDelayed("consentActivityStable", new Runnable() {
+            @Override
+            public void run() {
+                if (sessionId != mSessionId) {
+                    return;
+                }
+                mActivityStable = true;
+                evaluate();
+            }
+        }, MIN_ACTIVITY_STABLE_MS);
+
+        requestInfoUpdate();
+    }
+
+    /** Lua asked for the consent form. */
+    void onShowRequested() {
+        if (mFormState != FormState.IDLE) {
+            mEffects.log("showConsentForm ignored: form already " + mFormState);
+            return;
+        }
+
+        mFormAttempts = 0;
+        mInfoRetries = 0;
+        enterPending();
+        if ((mInfoState == InfoState.UNKNOWN || mInfoState == InfoState.FAILED)
+            && !mEffects.isConsentStatusKnown()) {
+            requestInfoUpdate();
+        }
+        evaluate();
+    }
+
+    void onInfoUpdateFinished(boolean updated) {
+        if (mInfoState != InfoState.UPDATING) {
+            return;
+        }
+
+        mInfoState = updated ? InfoState.UPDATED : InfoState.FAILED;
+        mEffects.log("consent info " + mInfoState);
+        if (mPreloadState == PreloadState.READY && !statusEquals(mPreloadStatus, mEffects.currentConsentStatus())) {
+            mEffects.log("consent form preload invalidated: status changed");
+            discardPreload();
+        }
+        maybeStartPreload();
+        evaluate();
+    }
+
+    /** Lua asked to load the form in the background so a later show is instant. */
+    void onPreloadRequested() {
+        mPreloadRequested = true;
+        if (mInfoState == InfoState.UNKNOWN || mInfoState == InfoState.FAILED) {
+            requestInfoUpdate();
+        }
+        maybeStartPreload();
+    }
+
+    /** True if a form loaded for {@code preloadId} would be accepted by {@link #onFormLoaded}. */
+    boolean isLoadingPreload(int preloadId) {
+        return preloadId == mPreloadId && mPreloadState == PreloadState.LOADING;
+    }
+
+    void onFormLoaded(int preloadId) {
+        if (!isLoadingPreload(preloadId)) {
+            return;
+        }
+
+        mPreloadState = PreloadState.READY;
+        mPreloadStatus = mEffects.currentConsentStatus();
+        mEffects.log("consent form preloaded, status=" + mPreloadStatus);
+        evaluate();
+    }
+
+    void onFormLoadFailed(int preloadId, String detail) {
+        if (!isLoadingPreload(preloadId)) {
+            return;
+        }
+
+        mEffects.log("consent form preload failed: " + detail);
+        mPreloadState = PreloadState.NONE;
+        mPreloadRequested = false;
+        evaluate();
+    }
+
+    void onWindowFocusChanged(boolean hasFocus) {
+        if (mHasWindowFocus == hasFocus) {
+            return;
+        }
+        mHasWindowFocus = hasFocus;
+        evaluate();
+    }
+
+    void onActivityAvailable(boolean hasFocus) {
+        mActivityAlive = true;
+        mHasWindowFocus = hasFocus;
+        evaluate();
+    }
+
+    void onActivityDestroyed() {
+        mActivityAlive = false;
+        if (mFormState == FormState.PENDING || mFormState == FormState.REQUESTED) {
+            mEffects.log("showConsentForm aborted: activity_gone");
+            finishForm();
+        }
+    }
+
+    void onFormOpened(int requestId) {
+        if (requestId != mRequestId) {
+            return;
+        }
+        if (mFormState == FormState.REQUESTED) {
+            mFormState = FormState.SHOWING;
+        }
+    }
+
+    void onFormDismissed(int requestId) {
+        if (requestId != mRequestId || mFormState == FormState.IDLE || mFormState == FormState.PENDING) {
+            return;
+        }
+
+        if (mInfoState != InfoState.UPDATED) {
+            mEffects.log("showConsentForm dismissed before consent update finished (info=" + mInfoState + ")");
+            retryForm();
+            return;
+        }
+        finishForm();
+    }
+
+    void onFormError(int requestId, String detail) {
+        if (requestId != mRequestId || mFormState == FormState.IDLE || mFormState == FormState.PENDING) {
+            return;
+        }
+
+        mEffects.log("showConsentForm error: " + detail);
+        retryForm();
+    }
+
+    private void onFormTimeout(int requestId) {
+        if (requestId != mRequestId || mFormState != FormState.REQUESTED) {
+            return;
+        }
+
+        if (!mHasWindowFocus) {
+            // Most likely the form (or another overlay) is on top; wait for its callbacks.
+            mEffects.log("showConsentForm pending: activity lost focus, waiting for callback");
+            final int pendingRequestId = requestId;
+            mEffects.postDelayed("consentFormGiveUp", new Runnable() {
+                @Override
+                public void run() {
+                    if (pendingRequestId == mRequestId && mFormState == FormState.REQUESTED) {
+                        mEffects.log("showConsentForm give up: no callback");
+                        finishForm();
+                    }
+                }
+            }, UNFOCUSED_GIVE_UP_MS);
+            return;
+        }
+
+        mEffects.log("showConsentForm no callback while focused, retrying");
+        retryForm();
+    }
+
+    private void requestInfoUpdate() {
+        if (mInfoState == InfoState.UPDATING) {
+            return;
+        }
+        mInfoState = InfoState.UPDATING;
+        mEffects.requestConsentInfoUpdate();
+    }
+
+    private void retryForm() {
+        mRequestId++;
+        if (mFormAttempts >= MAX_FORM_ATTEMPTS) {
+            mEffects.log("showConsentForm give up after " + mFormAttempts + " attempts");
+            finishForm();
+            return;
+        }
+
+        enterPending();
+        if (mInfoState != InfoState.UPDATED) {
+            requestInfoUpdate();
+        }
+        evaluate();
+    }
+
+    private void enterPending() {
+        mFormState = FormState.PENDING;
+        mWaitLogged = false;
+        mPendingSerial++;
+        final int pendingSerial = mPendingSerial;
+        mEffects.postDelayed("consentPendingGiveUp", new Runnable() {
+            @Override
+            public void run() {
+                if (pendingSerial == mPendingSerial && mFormState == FormState.PENDING) {
+                    mEffects.log("showConsentForm give up: preconditions not met");
+                    finishForm();
+                }
+            }
+        }, PENDING_GIVE_UP_MS);
+    }
+
+    /** Requests consent info again after an exponential backoff, unless the form stops waiting. */
+    private void scheduleInfoRetry() {
+        long delayMs = INFO_RETRY_BASE_DELAY_MS << mInfoRetries;
+        mInfoRetries++;
+        mInfoRetryScheduled = true;
+        final int pendingSerial = mPendingSerial;
+        mEffects.postDelayed("consentInfoRetry", new Runnable() {
+            @Override
+            public void run() {
+                mInfoRetryScheduled = false;
+                if (pendingSerial != mPendingSerial || mFormState != FormState.PENDING) {
+                    return;
+                }
+                if (mInfoState == InfoState.FAILED || mInfoState == InfoState.UNKNOWN) {
+                    requestInfoUpdate();
+                }
+                evaluate();
+            }
+        }, delayMs);
+    }
+
+    private void finishForm() {
+        mRequestId++;
+        mFormState = FormState.IDLE;
+    }
+
+    private void maybeStartPreload() {
+        if (!mPreloadRequested
+            || mPreloadState != PreloadState.NONE
+            || mInfoState != InfoState.UPDATED
+            || mFormState != FormState.IDLE) {
+            return;
+        }
+
+        mPreloadState = PreloadState.LOADING;
+        mPreloadId++;
+        if (!mEffects.loadForm(mPreloadId)) {
+            mEffects.log("consent form preload unavailable");
+            mPreloadState = PreloadState.NONE;
+            mPreloadRequested = false;
+            return;
+        }
+
+        final int preloadId = mPreloadId;
+        mEffects.postDelayed("consentPreloadTimeout", new Runnable() {
+            @Override
+            public void run() {
+                if (!isLoadingPreload(preloadId)) {
+                    return;
+                }
+                // A late onFormLoaded no longer matches the bumped id and is ignored.
+                mEffects.log("consent form preload timed out");
+                discardPreload();
+                mPreloadRequested = false;
+                evaluate();
+            }
+        }, PRELOAD_TIMEOUT_MS);
+    }
+
+    private void discardPreload() {
+        mPreloadId++;
+        if (mPreloadState == PreloadState.READY) {
+            mEffects.discardPreloadedForm();
+        }
+        mPreloadState = PreloadState.NONE;
+        mPreloadStatus = null;
+    }
+
+    private static boolean statusEquals(String left, String right) {
+        return left == null ? right == null : left.equals(right);
+    }
+
+    /** Shows the form if it is pending and every precondition holds; otherwise waits for the next event. */
+    private void evaluate() {
+        if (mFormState != FormState.PENDING) {
+            return;
+        }
+
+        if (!mActivityAlive) {
+            mEffects.log("showConsentForm aborted: activity_gone");
+            finishForm();
+            return;
+        }
+
+        String waitReason = null;
+        if (!mHasWindowFocus) {
+            waitReason = "activity has no window focus";
+        } else if (!mActivityStable && mSessionId > 0) {
+            waitReason = "startup stabilization";
+        } else if (!isInfoReadyForForm()) {
+            waitReason = "consent info " + mInfoState;
+            if ((mInfoState == InfoState.FAILED || mInfoState == InfoState.UNKNOWN) && !mInfoRetryScheduled) {
+                if (mInfoRetries >= MAX_INFO_RETRIES) {
+                    mEffects.log("showConsentForm give up: consent state not ready");
+                    finishForm();
+                    return;
+                }
+                scheduleInfoRetry();
+            }
+        }
+
+        if (waitReason == null && mPreloadState == PreloadState.LOADING) {
+            waitReason = "consent form preloading";
+        }
+
+        if (waitReason != null) {
+            if (!mWaitLogged) {
+                mEffects.log("showConsentForm wait: " + waitReason);
+                mWaitLogged = true;
+            }
+            return;
+        }
+
+        mFormState = FormState.REQUESTED;
+        mFormAttempts++;
+        mRequestId++;
+        final int requestId = mRequestId;
+        boolean preloaded = mPreloadState == PreloadState.READY;
+        mEffects.log("showConsentForm try: attempt=" + mFormAttempts + ", info=" + mInfoState + ", preloaded=" + preloaded);
+        if (preloaded) {
+            // A loaded form is single use.
+            mPreloadState = PreloadState.NONE;
+            mPreloadStatus = null;
+            mPreloadRequested = false;
+        }
+        boolean sent = preloaded ? mEffects.showPreloadedForm(requestId) : mEffects.showForm(requestId);
+        if (!sent && preloaded) {
+            mEffects.discardPreloadedForm();
+            sent = mEffects.showForm(requestId);
+        }
+        if (!sent) {
+            mEffects.log("showConsentForm give up: API unavailable");
+            finishForm();
+            return;
+        }
+
+        mEffects.postDelayed("consentNoCallbackTimeout", new Runnable() {
+            @Override
+            public void run() {
+                onFormTimeout(requestId);
+            }
+        }, NO_CALLBACK_TIMEOUT_MS);
+    }
+
+    private boolean isInfoReadyForForm() {
+        if (mInfoState == InfoState.UPDATED) {
+            return true;
+        }
+        // Fast path: the SDK may already hold consent info from a previous session.
+        // Only the first attempt skips the update; a FormCacheError retries through it.
+        if (mFormAttempts == 0 && mEffects.isConsentStatusKnown()) {
+            return true;
+        }
+        return mInfoState == InfoState.FAILED && mEffects.isConsentStatusKnown();
+    }
+}
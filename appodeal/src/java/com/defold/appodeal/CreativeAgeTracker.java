@@ -0,0 +1,134 @@
+package com.defold.appodeal;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.util.Log;
+import com.appodeal.ads.Appodeal;
+
+/**
+ * Tracks how long loaded creatives live before the SDK reports them expired
+ * and re-caches shortly before the learned expiry, so a show call rarely
+ * lands on a slot that has just expired. The refresh runs from an idle
+ * handler so it never competes with input or lifecycle work on the looper.
+ * Ages use {@link SystemClock#elapsedRealtime()}: creatives expire on the ad
+ * server's clock, which keeps running while the device sleeps.
+ *
+ * <p>All methods except {@link #appendStats} run on the main thread.
+ */
+final class CreativeAgeTracker {
+    private static final String TAG = "DefoldAppodeal";
+    /** Refresh this long before the learned time-to-expiry. */
+    static final long REFRESH_MARGIN_MS = 60000L;
+    /** Observed lifetimes shorter than this are treated as noise. */
+    static final long MIN_OBSERVED_TTL_MS = 30000L;
+    private static final double TTL_EMA_WEIGHT = 0.3d;
+
+    private static final TypeState INTERSTITIAL = new TypeState(Appodeal.INTERSTITIAL, "interstitial");
+    private static final TypeState REWARDED = new TypeState(Appodeal.REWARDED_VIDEO, "rewarded");
+
+    private CreativeAgeTracker() {
+    }
+
+    private static final class TypeState {
+        final int adType;
+        final String label;
+        long loadedAtMs = 0L;
+        long ttlEmaMs = 0L;
+        int generation = 0;
+        long expiredCount = 0L;
+        long refreshCount = 0L;
+
+        TypeState(int adType, String label) {
+            this.adType = adType;
+            this.label = label;
+        }
+    }
+
+    private static TypeState stateFor(int adType) {
+        return adType == Appodeal.REWARDED_VIDEO ? REWARDED : INTERSTITIAL;
+    }
+
+    static void onLoaded(int adType) {
+        TypeState state = stateFor(adType);
+        state.loadedAtMs = SystemClock.elapsedRealtime();
+        state.generation++;
+        scheduleRefresh(state);
+    }
+
+    /** The creative was consumed or dropped; nothing left to age. */
+    static void onCleared(int adType) {
+        TypeState state = stateFor(adType);
+        state.loadedAtMs = 0L;
+        state.generation++;
+    }
+
+    static void onExpired(int adType) {
+        TypeState state = stateFor(adType);
+        state.expiredCount++;
+        if (state.loadedAtMs > 0L) {
+            long ageMs = SystemClock.elapsedRealtime() - state.loadedAtMs;
+            if (ageMs >= MIN_OBSERVED_TTL_MS) {
+                state.ttlEmaMs = state.ttlEmaMs <= 0L
+                    ? ageMs
+                    : (long) (state.ttlEmaMs * (1.0d - TTL_EMA_WEIGHT) + ageMs * TTL_EMA_WEIGHT);
+                Log.i(TAG, "creative " + state.label + ": expired after " + ageMs + "ms, ttl estimate " + state.ttlEmaMs + "ms");
+            }
+        }
+        onCleared(adType);
+    }
+
+    private static void scheduleRefresh(final TypeState state) {
+        if (state.ttlEmaMs <= 0L) {
+            return;
+        }
+
+        long refreshInMs = Math.max(0L, state.ttlEmaMs - REFRESH_MARGIN_MS);
+        final int generation = state.generation;
+        AppodealBridge.postDelayedOnMainThread("creativeRefreshDue", new Runnable() {
+            @Override
+            public void run() {
+                if (generation != state.generation) {
+                    return;
+                }
+                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                    @Override
+                    public boolean queueIdle() {
+                        if (generation == state.generation) {
+                            refresh(state);
+                        }
+                        return false;
+                    }
+                });
+            }
+        }, refreshInMs);
+    }
+
+    private static void refresh(TypeState state) {
+        // A type owned by hint_upcoming() is re-cached around its hinted moment instead.
+        if (!PrefetchScheduler.allowsWarmup(state.adType)
+            || !NetworkMonitor.isOnline()
+            || MemoryPressureMonitor.isCachingPaused()) {
+            return;
+        }
+
+        state.refreshCount++;
+        Log.i(TAG, "creative " + state.label + ": refreshing ahead of expected expiry");
+        AppodealBridge.requestCache(state.adType);
+    }
+
+    static void appendStats(StringBuilder out) {
+        appendStats(out, INTERSTITIAL);
+        appendStats(out, REWARDED);
+    }
+
+    private static void appendStats(StringBuilder out, TypeState state) {
+        long loadedAtMs = state.loadedAtMs;
+        out.append("creative_age.").append(state.label)
+            .append("\tage_ms=").append(loadedAtMs > 0L ? SystemClock.elapsedRealtime() - loadedAtMs : -1L)
+            .append("\tttl_estimate_ms=").append(state.ttlEmaMs)
+            .append("\texpired=").append(state.expiredCount)
+            .append("\trefreshes=").append(state.refreshCount)
+            .append('\n');
+    }
+}
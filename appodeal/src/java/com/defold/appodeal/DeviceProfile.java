@@ -0,0 +1,164 @@
+package com.defold.appodeal;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+import com.appodeal.ads.Appodeal;
+
+/**
+ * Detects low-end hardware and, on it, replaces Appodeal's parallel
+ * auto-cache with a throttled mode: one ad type loads at a time, interstitial
+ * before rewarded, and nothing loads until the game reports it has finished
+ * its own startup loading (or {@link #GAME_READY_FALLBACK_MS} passes).
+ *
+ * <p>All methods except {@link #appendStats} run on the main thread.
+ */
+final class DeviceProfile {
+    private static final String TAG = "DefoldAppodeal";
+    /** Devices with at most this much RAM are throttled. */
+    static final long LOW_RAM_TOTAL_MB = 2560L;
+    static final int LOW_END_MAX_CORES = 4;
+    /** Caching starts after this long even if the game never calls notify_game_ready(). */
+    static final long GAME_READY_FALLBACK_MS = 20000L;
+    /** An in-flight load that produced no callback within this long no longer blocks the queue. */
+    static final long IN_FLIGHT_TIMEOUT_MS = 30000L;
+
+    private static volatile boolean sDetected = false;
+    private static volatile boolean sThrottled = false;
+    private static volatile boolean sLowRamFlag = false;
+    private static volatile long sTotalMemMb = 0L;
+    private static volatile int sCores = 0;
+    private static volatile boolean sGameReady = false;
+
+    private static boolean sInterstitialQueued = false;
+    private static boolean sRewardedQueued = false;
+    /** Ad type currently loading in throttled mode, or 0. */
+    private static int sInFlightType = 0;
+    private static int sInFlightGeneration = 0;
+    private static long sSerializedCaches = 0L;
+
+    private DeviceProfile() {
+    }
+
+    static void detect(Context context) {
+        if (sDetected || context == null) {
+            return;
+        }
+        sDetected = true;
+
+        sCores = Runtime.getRuntime().availableProcessors();
+        try {
+            ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            if (manager != null) {
+                sLowRamFlag = manager.isLowRamDevice();
+                ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+                manager.getMemoryInfo(memoryInfo);
+                sTotalMemMb = memoryInfo.totalMem / (1024L * 1024L);
+            }
+        } catch (Throwable throwable) {
+            Log.w(TAG, "device profile memory probe failed: " + throwable.getClass().getSimpleName());
+        }
+
+        boolean lowRam = sLowRamFlag || (sTotalMemMb > 0L && sTotalMemMb <= LOW_RAM_TOTAL_MB);
+        boolean weakCpu = sCores <= LOW_END_MAX_CORES && Build.VERSION.SDK_INT < Build.VERSION_CODES.O;
+        sThrottled = lowRam || weakCpu;
+        Log.i(TAG, "device profile: " + (sThrottled ? "throttled" : "full")
+            + " lowRamDevice=" + sLowRamFlag
+            + " totalMemMb=" + sTotalMemMb
+            + " cores=" + sCores
+            + " api=" + Build.VERSION.SDK_INT);
+
+        if (sThrottled) {
+            AppodealBridge.postDelayedOnMainThread("gameReadyFallback", new Runnable() {
+                @Override
+                public void run() {
+                    if (!sGameReady) {
+                        Log.i(TAG, "device profile: game ready not signalled, starting cache");
+                        markGameReady();
+                    }
+                }
+            }, GAME_READY_FALLBACK_MS);
+        }
+    }
+
+    static boolean isThrottled() {
+        return sThrottled;
+    }
+
+    static void markGameReady() {
+        if (sGameReady) {
+            return;
+        }
+        sGameReady = true;
+        pump();
+    }
+
+    /** Queues a cache request; at most one is in flight. */
+    static void enqueueCache(int adType) {
+        if (adType == Appodeal.REWARDED_VIDEO) {
+            sRewardedQueued = true;
+        } else {
+            sInterstitialQueued = true;
+        }
+        pump();
+    }
+
+    /** Called when a load for {@code adType} finished, successfully or not. */
+    static void onLoadFinished(int adType) {
+        if (sInFlightType != adType) {
+            return;
+        }
+        sInFlightType = 0;
+        pump();
+    }
+
+    private static void pump() {
+        if (!sGameReady || sInFlightType != 0) {
+            return;
+        }
+
+        final int next;
+        if (sInterstitialQueued) {
+            sInterstitialQueued = false;
+            next = Appodeal.INTERSTITIAL;
+        } else if (sRewardedQueued) {
+            sRewardedQueued = false;
+            next = Appodeal.REWARDED_VIDEO;
+        } else {
+            return;
+        }
+
+        if (Appodeal.isLoaded(next)) {
+            pump();
+            return;
+        }
+
+        sInFlightType = next;
+        sSerializedCaches++;
+        final int generation = ++sInFlightGeneration;
+        AppodealBridge.invokeCacheForType(next);
+        AppodealBridge.postDelayedOnMainThread("throttledCacheTimeout", new Runnable() {
+            @Override
+            public void run() {
+                if (generation == sInFlightGeneration && sInFlightType == next) {
+                    Log.w(TAG, "device profile: no load callback, releasing queue");
+                    sInFlightType = 0;
+                    pump();
+                }
+            }
+        }, IN_FLIGHT_TIMEOUT_MS);
+    }
+
+    static void appendStats(StringBuilder out) {
+        out.append("device")
+            .append("\tprofile=").append(sThrottled ? "throttled" : "full")
+            .append("\tlow_ram_device=").append(sLowRamFlag ? 1 : 0)
+            .append("\ttotal_mem_mb=").append(sTotalMemMb)
+            .append("\tcores=").append(sCores)
+            .append("\tapi=").append(Build.VERSION.SDK_INT)
+            .append("\tgame_ready=").append(sGameReady ? 1 : 0)
+            .append("\tserialized_caches=").append(sSerializedCaches)
+            .append('\n');
+    }
+}
@@ -0,0 +1,67 @@
+package com.defold.appodeal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Informational ad events Lua has opted out of via set_event_filter(). Events
+ * are checked with {@link #wants} before calling into native code, so ignored
+ * events cost no JNI crossing, string marshalling or queue entry. Terminal
+ * events and rewards always pass: the native side needs them to release
+ * callbacks and record rewards.
+ *
+ * <p>Bit values are mirrored in appodeal.cpp.
+ */
+final class EventFilter {
+    static final int LOADED = 1;
+    static final int FAILED_TO_LOAD = 1 << 1;
+    static final int SHOWN = 1 << 2;
+    static final int CLICKED = 1 << 3;
+    static final int ALL = LOADED | FAILED_TO_LOAD | SHOWN | CLICKED;
+
+    private static volatile int sMask = ALL;
+    private static final AtomicLong sSuppressed = new AtomicLong(0L);
+
+    private EventFilter() {
+    }
+
+    static void setMask(int mask) {
+        sMask = mask & ALL;
+    }
+
+    /** False for a filterable event Lua opted out of; always true for the rest. */
+    static boolean wants(String event) {
+        int bit = bitFor(event);
+        if (bit == 0 || (sMask & bit) != 0) {
+            return true;
+        }
+        sSuppressed.incrementAndGet();
+        return false;
+    }
+
+    private static int bitFor(String event) {
+        if ("loaded".equals(event)) {
+            return LOADED;
+        }
+        if ("failed_to_load".equals(event)) {
+            return FAILED_TO_LOAD;
+        }
+        if ("shown".equals(event)) {
+            return SHOWN;
+        }
+        if ("clicked".equals(event)) {
+            return CLICKED;
+        }
+        return 0;
+    }
+
+    static void appendStats(StringBuilder out) {
+        int mask = sMask;
+        out.append("events")
+            .append("\tloaded=").append((mask & LOADED) != 0 ? 1 : 0)
+            .append("\tfailed_to_load=").append((mask & FAILED_TO_LOAD) != 0 ? 1 : 0)
+            .append("\tshown=").append((mask & SHOWN) != 0 ? 1 : 0)
+            .append("\tclicked=").append((mask & CLICKED) != 0 ? 1 : 0)
+            .append("\tsuppressed=").append(sSuppressed.get())
+            .append('\n');
+    }
+}
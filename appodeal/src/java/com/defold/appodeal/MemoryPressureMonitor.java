@@ -0,0 +1,191 @@
+package com.defold.appodeal;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+import android.util.Log;
+import com.appodeal.ads.Appodeal;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reacts to onTrimMemory so pre-cached creatives do not push the game into a
+ * low-memory kill. At moderate pressure auto-cache, background warmups and
+ * hinted prefetches pause; at critical pressure the SDK is also asked to
+ * destroy cached creatives that are not about to be shown. Only drops the SDK
+ * performs are counted: Appodeal.destroy(int) may ignore full-screen types,
+ * which is counted as drop_unsupported. Caching resumes once no pressure signal has arrived
+ * for {@link #RECOVERY_MS}, since Android has no "pressure cleared" callback.
+ *
+ * <p>Component callbacks arrive on the main thread; all state changes happen there.
+ */
+final class MemoryPressureMonitor {
+    private static final String TAG = "DefoldAppodeal";
+    static final long RECOVERY_MS = 30000L;
+
+    static final int LEVEL_NONE = 0;
+    static final int LEVEL_MODERATE = 1;
+    static final int LEVEL_CRITICAL = 2;
+
+    private static final AtomicBoolean sStarted = new AtomicBoolean(false);
+    private static volatile int sLevel = LEVEL_NONE;
+    private static long sLastPressureAtMs = 0L;
+    private static int sRecoveryGeneration = 0;
+
+    private static long sRunningModerate = 0L;
+    private static long sRunningLow = 0L;
+    private static long sRunningCritical = 0L;
+    private static long sUiHidden = 0L;
+    private static long sBackground = 0L;
+    private static long sModerate = 0L;
+    private static long sComplete = 0L;
+    private static long sLowMemory = 0L;
+    private static long sDropped = 0L;
+    private static long sDropUnsupported = 0L;
+    private static long sRestores = 0L;
+
+    private MemoryPressureMonitor() {
+    }
+
+    static void start(Context context) {
+        if (context == null || !sStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                MemoryPressureMonitor.onTrimMemory(level);
+            }
+
+            @Override
+            public void onLowMemory() {
+                sLowMemory++;
+                raise(LEVEL_CRITICAL, "low_memory");
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration configuration) {
+            }
+        });
+    }
+
+    /** True while auto-cache and background warmups are held back. */
+    static boolean isCachingPaused() {
+        return sLevel != LEVEL_NONE;
+    }
+
+    private static void onTrimMemory(int level) {
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
+                sRunningModerate++;
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+                sRunningLow++;
+                raise(LEVEL_MODERATE, "running_low");
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+                sRunningCritical++;
+                raise(LEVEL_CRITICAL, "running_critical");
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN:
+                sUiHidden++;
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_BACKGROUND:
+                sBackground++;
+                raise(LEVEL_MODERATE, "background");
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+                sModerate++;
+                raise(LEVEL_MODERATE, "moderate");
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+                sComplete++;
+                raise(LEVEL_CRITICAL, "complete");
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void raise(int level, String source) {
+        sLastPressureAtMs = SystemClock.uptimeMillis();
+        int previous = sLevel;
+        if (level > previous) {
+            sLevel = level;
+            Log.w(TAG, "memory pressure " + levelLabel(level) + " (" + source + ")");
+            if (previous == LEVEL_NONE) {
+                AppodealBridge.configureAutoCache();
+            }
+            if (level == LEVEL_CRITICAL) {
+                dropIfNotImminent(Appodeal.INTERSTITIAL);
+                dropIfNotImminent(Appodeal.REWARDED_VIDEO);
+            }
+        }
+        scheduleRecoveryCheck();
+    }
+
+    private static void dropIfNotImminent(int adType) {
+        if (AppodealBridge.isShowImminent(adType) || !Appodeal.isLoaded(adType)) {
+            return;
+        }
+        if (AppodealBridge.destroyCachedCreative(adType)) {
+            sDropped++;
+            // The dropped creative must not be aged or refreshed as if it were still cached.
+            CreativeAgeTracker.onCleared(adType);
+        } else {
+            sDropUnsupported++;
+        }
+    }
+
+    private static void scheduleRecoveryCheck() {
+        final int generation = ++sRecoveryGeneration;
+        AppodealBridge.postDelayedOnMainThread("memoryRecoveryCheck", new Runnable() {
+            @Override
+            public void run() {
+                if (generation != sRecoveryGeneration || sLevel == LEVEL_NONE) {
+                    return;
+                }
+                if (SystemClock.uptimeMillis() - sLastPressureAtMs < RECOVERY_MS) {
+                    scheduleRecoveryCheck();
+                    return;
+                }
+
+                sLevel = LEVEL_NONE;
+                sRestores++;
+                Log.i(TAG, "memory pressure cleared, resuming caching");
+                AppodealBridge.onMemoryPressureCleared();
+            }
+        }, RECOVERY_MS);
+    }
+
+    private static String levelLabel(int level) {
+        switch (level) {
+            case LEVEL_MODERATE:
+                return "moderate";
+            case LEVEL_CRITICAL:
+                return "critical";
+            default:
+                return "none";
+        }
+    }
+
+    static void appendStats(StringBuilder out) {
+        out.append("memory")
+            .append("\tpressure=").append(levelLabel(sLevel))
+            .append("\tdropped=").append(sDropped)
+            .append("\tdrop_unsupported=").append(sDropUnsupported)
+            .append("\trestores=").append(sRestores)
+            .append('\n');
+        out.append("memory.levels")
+            .append("\trunning_moderate=").append(sRunningModerate)
+            .append("\trunning_low=").append(sRunningLow)
+            .append("\trunning_critical=").append(sRunningCritical)
+            .append("\tui_hidden=").append(sUiHidden)
+            .append("\tbackground=").append(sBackground)
+            .append("\tmoderate=").append(sModerate)
+            .append("\tcomplete=").append(sComplete)
+            .append("\tlow_memory=").append(sLowMemory)
+            .append('\n');
+    }
+}
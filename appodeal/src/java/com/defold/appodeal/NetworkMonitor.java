@@ -0,0 +1,171 @@
+package com.defold.appodeal;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.util.Log;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Follows the default network so cache retries can be suspended while the
+ * device is offline and replaced by one coalesced warmup once it reconnects.
+ * Also records whether the current link is metered.
+ *
+ * <p>Before Android N there is no default-network callback, so every network
+ * with internet access is followed: the device is offline only once all of
+ * them are lost, and the metered flag is re-read from the active network
+ * rather than taken from whichever network reported last.
+ *
+ * <p>Network callbacks arrive on a ConnectivityManager thread; state is kept
+ * in volatile fields and the reconnect warmup is posted to the main thread.
+ */
+final class NetworkMonitor {
+    private static final String TAG = "DefoldAppodeal";
+    /** Delay after reconnect so a flapping link produces a single warmup. */
+    static final long RECONNECT_SETTLE_MS = 1000L;
+
+    private static final AtomicBoolean sStarted = new AtomicBoolean(false);
+    private static final AtomicBoolean sReconnectPending = new AtomicBoolean(false);
+    /** Assume online until the first callback says otherwise. */
+    private static volatile boolean sOnline = true;
+    private static volatile boolean sMetered = false;
+    private static volatile long sSuspendedWarmups = 0L;
+    private static volatile long sReconnectWarmups = 0L;
+    /** Networks with internet access, before Android N only. Guarded by itself. */
+    private static final Set<Network> sAvailable = new HashSet<Network>();
+
+    private NetworkMonitor() {
+    }
+
+    static void start(Context context) {
+        if (context == null || !sStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            final ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (manager == null) {
+                sStarted.set(false);
+                return;
+            }
+
+            readCurrentState(manager);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                manager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onAvailable(Network network) {
+                        setOnline(true);
+                    }
+
+                    @Override
+                    public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                        if (capabilities != null) {
+                            sMetered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+                        }
+                    }
+
+                    @Override
+                    public void onLost(Network network) {
+                        setOnline(false);
+                    }
+                });
+            } else {
+                manager.registerNetworkCallback(
+                    new NetworkRequest.Builder().addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).build(),
+                    new ConnectivityManager.NetworkCallback() {
+                        @Override
+                        public void onAvailable(Network network) {
+                            synchronized (sAvailable) {
+                                sAvailable.add(network);
+                            }
+                            sMetered = manager.isActiveNetworkMetered();
+                            setOnline(true);
+                        }
+
+                        @Override
+                        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                            sMetered = manager.isActiveNetworkMetered();
+                        }
+
+                        @Override
+                        public void onLost(Network network) {
+                            boolean anyLeft;
+                            synchronized (sAvailable) {
+                                sAvailable.remove(network);
+                                anyLeft = !sAvailable.isEmpty();
+                            }
+                            sMetered = manager.isActiveNetworkMetered();
+                            setOnline(anyLeft);
+                        }
+                    }
+                );
+            }
+            Log.i(TAG, "network monitor started: online=" + sOnline + ", metered=" + sMetered);
+        } catch (Throwable throwable) {
+            // Without ACCESS_NETWORK_STATE we simply keep the old retry behaviour.
+            sOnline = true;
+            Log.w(TAG, "network monitor unavailable: " + throwable.getClass().getSimpleName());
+        }
+    }
+
+    private static void readCurrentState(ConnectivityManager manager) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return;
+        }
+
+        Network network = manager.getActiveNetwork();
+        NetworkCapabilities capabilities = network != null ? manager.getNetworkCapabilities(network) : null;
+        sOnline = capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        sMetered = manager.isActiveNetworkMetered();
+    }
+
+    private static void setOnline(boolean online) {
+        boolean wasOnline = sOnline;
+        sOnline = online;
+        if (wasOnline == online) {
+            return;
+        }
+
+        Log.i(TAG, "network " + (online ? "available" : "lost"));
+        if (online && sReconnectPending.compareAndSet(false, true)) {
+            AppodealBridge.postDelayedOnMainThread("networkReconnect", new Runnable() {
+                @Override
+                public void run() {
+                    sReconnectPending.set(false);
+                    if (sOnline) {
+                        sReconnectWarmups++;
+                        AppodealBridge.onNetworkReconnected();
+                    }
+                }
+            }, RECONNECT_SETTLE_MS);
+        }
+    }
+
+    static boolean isOnline() {
+        return sOnline;
+    }
+
+    static boolean isMetered() {
+        return sMetered;
+    }
+
+    /** Records a warmup that was dropped because the device is offline. Main thread only. */
+    static void noteSuspendedWarmup() {
+        sSuspendedWarmups++;
+    }
+
+    static void appendStats(StringBuilder out) {
+        out.append("network")
+            .append("\tmonitoring=").append(sStarted.get() ? 1 : 0)
+            .append("\tonline=").append(sOnline ? 1 : 0)
+            .append("\tmetered=").append(sMetered ? 1 : 0)
+            .append("\tsuspended_warmups=").append(sSuspendedWarmups)
+            .append("\treconnect_warmups=").append(sReconnectWarmups)
+            .append('\n');
+    }
+}
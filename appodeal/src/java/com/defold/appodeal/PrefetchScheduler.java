@@ -0,0 +1,177 @@
+package com.defold.appodeal;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.appodeal.ads.Appodeal;
+
+/**
+ * Game-hinted prefetch. Once the game hints that an ad type will be shown
+ * soon, auto-cache for that type is turned off and the scheduler times a
+ * single Appodeal.cache call so a fresh creative lands just before the hinted
+ * moment. The lead time is learned from observed cache-to-loaded latency.
+ *
+ * <p>All methods run on the main thread.
+ */
+final class PrefetchScheduler {
+    private static final String TAG = "DefoldAppodeal";
+    static final long DEFAULT_LOAD_LEAD_MS = 8000L;
+    static final long MIN_LOAD_LEAD_MS = 2000L;
+    static final long MAX_LOAD_LEAD_MS = 30000L;
+    /** Extra margin on top of the learned load latency. */
+    static final long LEAD_MARGIN_MS = 1500L;
+    /** After the hinted moment passes, failed loads are still retried for this long. */
+    static final long HINT_GRACE_MS = 30000L;
+    private static final double LATENCY_EMA_WEIGHT = 0.3d;
+
+    private static final TypeState INTERSTITIAL = new TypeState(Appodeal.INTERSTITIAL);
+    private static final TypeState REWARDED = new TypeState(Appodeal.REWARDED_VIDEO);
+
+    private PrefetchScheduler() {
+    }
+
+    private static final class TypeState {
+        final int adType;
+        volatile boolean managed = false;
+        volatile long hintAtMs = 0L;
+        long cacheRequestedAtMs = 0L;
+        long loadLatencyEmaMs = 0L;
+        int generation = 0;
+        long cacheCount = 0L;
+        long skippedCount = 0L;
+        long pressureSkippedCount = 0L;
+
+        TypeState(int adType) {
+            this.adType = adType;
+        }
+    }
+
+    private static TypeState stateFor(int adType) {
+        return adType == Appodeal.REWARDED_VIDEO ? REWARDED : INTERSTITIAL;
+    }
+
+    /** True once a hint took this type off auto-cache. */
+    static boolean isManaged(int adType) {
+        return stateFor(adType).managed;
+    }
+
+    /**
+     * Whether a background warmup may cache this type right now. A hinted type
+     * is cached only inside the {@link #isShowImminent} window, so a warmup
+     * cannot load it long before the hinted moment.
+     */
+    static boolean allowsWarmup(int adType) {
+        return !stateFor(adType).managed || isShowImminent(adType);
+    }
+
+    /** True from the moment the pre-show cache is due until the hinted moment has passed. */
+    static boolean isShowImminent(int adType) {
+        TypeState state = stateFor(adType);
+        if (!state.managed) {
+            return false;
+        }
+        long now = SystemClock.uptimeMillis();
+        return now >= state.hintAtMs - leadMs(state) && now <= state.hintAtMs + HINT_GRACE_MS;
+    }
+
+    /**
+     * The game expects to show {@code adType} in {@code inMs}. A negative
+     * value hands the type back to auto-cache.
+     */
+    static void hint(final int adType, long inMs) {
+        final TypeState state = stateFor(adType);
+        final String label = adType == Appodeal.REWARDED_VIDEO ? "rewarded" : "interstitial";
+        state.generation++;
+
+        if (inMs < 0L) {
+            if (state.managed) {
+                state.managed = false;
+                state.hintAtMs = 0L;
+                AppodealBridge.configureAutoCache();
+                Log.i(TAG, "prefetch " + label + ": released to auto_cache");
+            }
+            return;
+        }
+
+        if (!state.managed) {
+            state.managed = true;
+            AppodealBridge.setAutoCache(adType, false);
+            Log.i(TAG, "prefetch " + label + ": auto_cache disabled, scheduler owns caching");
+        }
+
+        long now = SystemClock.uptimeMillis();
+        state.hintAtMs = now + inMs;
+        long fireInMs = inMs - leadMs(state);
+        Log.i(TAG, "prefetch " + label + ": hint in " + inMs + "ms, cache in " + Math.max(0L, fireInMs) + "ms");
+
+        if (fireInMs <= 0L) {
+            cacheIfNeeded(state, label);
+            return;
+        }
+
+        final int generation = state.generation;
+        AppodealBridge.postDelayedOnMainThread("prefetchCache", new Runnable() {
+            @Override
+            public void run() {
+                if (generation == state.generation && state.managed) {
+                    cacheIfNeeded(state, label);
+                }
+            }
+        }, fireInMs);
+    }
+
+    static void onLoaded(int adType) {
+        TypeState state = stateFor(adType);
+        if (state.cacheRequestedAtMs <= 0L) {
+            return;
+        }
+
+        long latencyMs = SystemClock.uptimeMillis() - state.cacheRequestedAtMs;
+        state.cacheRequestedAtMs = 0L;
+        state.loadLatencyEmaMs = state.loadLatencyEmaMs <= 0L
+            ? latencyMs
+            : (long) (state.loadLatencyEmaMs * (1.0d - LATENCY_EMA_WEIGHT) + latencyMs * LATENCY_EMA_WEIGHT);
+    }
+
+    static void onFailedToLoad(int adType) {
+        stateFor(adType).cacheRequestedAtMs = 0L;
+    }
+
+    private static void cacheIfNeeded(TypeState state, String label) {
+        // The warmup after pressure clears still catches the pre-show window.
+        if (MemoryPressureMonitor.isCachingPaused()) {
+            state.pressureSkippedCount++;
+            Log.i(TAG, "prefetch " + label + ": memory pressure, deferring cache");
+            return;
+        }
+        if (Appodeal.isLoaded(state.adType)) {
+            state.skippedCount++;
+            Log.i(TAG, "prefetch " + label + ": already loaded, skipping cache");
+            return;
+        }
+
+        state.cacheCount++;
+        state.cacheRequestedAtMs = SystemClock.uptimeMillis();
+        AppodealBridge.requestCache(state.adType);
+    }
+
+    private static long leadMs(TypeState state) {
+        long learned = state.loadLatencyEmaMs > 0L ? state.loadLatencyEmaMs + LEAD_MARGIN_MS : DEFAULT_LOAD_LEAD_MS;
+        return Math.max(MIN_LOAD_LEAD_MS, Math.min(MAX_LOAD_LEAD_MS, learned));
+    }
+
+    static void appendStats(StringBuilder out) {
+        appendStats(out, "interstitial", INTERSTITIAL);
+        appendStats(out, "rewarded", REWARDED);
+    }
+
+    private static void appendStats(StringBuilder out, String label, TypeState state) {
+        out.append("prefetch.").append(label)
+            .append("\tmanaged=").append(state.managed ? 1 : 0)
+            .append("\tlead_ms=").append(leadMs(state))
+            .append("\tload_latency_ms=").append(state.loadLatencyEmaMs)
+            .append("\tcache_calls=").append(state.cacheCount)
+            .append("\tskipped_loaded=").append(state.skippedCount)
+            .append("\tskipped_pressure=").append(state.pressureSkippedCount)
+            .append('\n');
+    }
+}
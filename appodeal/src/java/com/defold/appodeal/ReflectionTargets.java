@@ -0,0 +1,63 @@
+package com.defold.appodeal;
+
+/**
+ * Every class and member the bridge reaches through reflection, in one place.
+ * The SDK APIs used here change between Appodeal versions, so they are looked
+ * up by name instead of linked; R8 must keep exactly these names.
+ *
+ * <p>{@code tools/gen_proguard_rules.py} reads these constants and writes the
+ * generated block in {@code proguard-rules.pro}; the rule table lives in the
+ * script, so nothing here but the names reaches the APK. After changing
+ * anything here run the script; {@code --check} fails if a lookup in the
+ * bridge bypasses this class, a constant has no rule or the rules are stale.
+ */
+final class ReflectionTargets {
+    // Classes
+    static final String APPODEAL = "com.appodeal.ads.Appodeal";
+    static final String LOG_LEVEL = "com.appodeal.ads.LogLevel";
+    static final String CONSENT_MANAGER = "com.appodeal.consent.ConsentManager";
+    static final String CONSENT_STATUS = "com.appodeal.consent.ConsentStatus";
+    static final String CONSENT_UPDATE_REQUEST_PARAMETERS = "com.appodeal.consent.ConsentUpdateRequestParameters";
+    static final String CONSENT_INFO_UPDATE_CALLBACK = "com.appodeal.consent.ConsentInfoUpdateCallback";
+    static final String CONSENT_INFORMATION = "com.appodeal.consent.ConsentInformation";
+    /**
+     * Status-backed ConsentInformation in older consent SDKs, which ship it
+     * already obfuscated. Kept as any subclass of {@link #CONSENT_INFORMATION}.
+     */
+    static final String CONSENT_STATUS_INFORMATION = "com.appodeal.consent.b";
+    static final String DEFOLD_ACTIVITY = "com.dynamo.android.DefoldActivity";
+    static final String DEFOLD_ACTIVITY_LEGACY = "com.defold.android.DefoldActivity";
+    /** Framework class; never shrunk, so it has no keep rule. */
+    static final String ACTIVITY_THREAD = "android.app.ActivityThread";
+
+    // Appodeal members
+    static final String INITIALIZE = "initialize";
+    static final String CACHE = "cache";
+    static final String SET_AUTO_CACHE = "setAutoCache";
+    static final String SET_LOG_LEVEL = "setLogLevel";
+    static final String DESTROY = "destroy";
+    static final String GET_VERSION = "getVersion";
+
+    // Consent members
+    static final String REQUEST_CONSENT_INFO_UPDATE = "requestConsentInfoUpdate";
+    static final String LOAD_AND_SHOW_CONSENT_FORM = "loadAndShowConsentFormIfRequired";
+    static final String LOAD_CONSENT_FORM = "load";
+    static final String LOAD_CONSENT_FORM_LEGACY = "loadConsentForm";
+    static final String SHOW_CONSENT_FORM = "show";
+    static final String CAN_SHOW_ADS = "canShowAds";
+    static final String GET_STATUS = "getStatus";
+    static final String STATUS = "status";
+    static final String INSTANCE = "INSTANCE";
+    static final String SET_CONSENT_INFORMATION = "setConsentInformation$consent_release";
+
+    // Defold members
+    static final String GET_ACTIVITY = "getActivity";
+
+    // Framework members (ACTIVITY_THREAD_*), exempt from keep rules
+    static final String ACTIVITY_THREAD_CURRENT = "currentActivityThread";
+    static final String ACTIVITY_THREAD_ACTIVITIES = "mActivities";
+    static final String ACTIVITY_THREAD_RECORD_ACTIVITY = "activity";
+
+    private ReflectionTargets() {
+    }
+}
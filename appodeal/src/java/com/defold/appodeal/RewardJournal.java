@@ -0,0 +1,407 @@
+package com.defold.appodeal;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Append-only reward journal in a memory-mapped file under the app's files
+ * directory. A reward is written into the mapping on the callback thread; that
+ * is a plain memory store, and the page cache keeps it if the process dies
+ * before Lua collects it. Flushing to storage ({@code force()}) is batched on a
+ * background thread, so the callback never waits on disk.
+ *
+ * <p>Layout: a 16-byte header, a table of {@link #CURRENCY_SLOTS} currency
+ * names, then a ring of {@link #CAPACITY} fixed-size records of sequence id,
+ * amount, timestamp, currency index and state. The state byte is written last,
+ * so a record is either complete or still free. Records never move: a slot is
+ * reused only after its reward was acknowledged, so a kill at any point leaves
+ * each reward in at most one pending record. A currency name is replaced
+ * only once no pending record refers to it. Entries stay until Lua
+ * acknowledges them; ones returned but not acknowledged come back after a
+ * restart.
+ */
+final class RewardJournal {
+    private static final String TAG = "DefoldAppodeal";
+    private static final String FILE_NAME = "defold_appodeal_rewards.journal";
+    private static final int MAGIC = 0x52574a31; // "RWJ1"
+
+    private static final int HEADER_SIZE = 16;
+    /** Header field holding the next sequence id, so ids stay unique across compaction. */
+    private static final int HEADER_NEXT_SEQ = 4;
+    static final int CURRENCY_SLOTS = 16;
+    private static final int CURRENCY_SIZE = 32;
+    private static final int RECORDS_OFFSET = HEADER_SIZE + CURRENCY_SLOTS * CURRENCY_SIZE;
+    static final int CAPACITY = 128;
+    private static final int RECORD_SIZE = 32;
+    private static final int FILE_SIZE = RECORDS_OFFSET + CAPACITY * RECORD_SIZE;
+
+    // Record fields
+    private static final int REC_SEQ = 0;
+    private static final int REC_AMOUNT = 8;
+    private static final int REC_TIMESTAMP = 16;
+    private static final int REC_CURRENCY = 24;
+    private static final int REC_STATE = 26;
+
+    private static final byte STATE_EMPTY = 0;
+    private static final byte STATE_PENDING = 1;
+    private static final byte STATE_ACKED = 2;
+    private static final int NO_CURRENCY = 0xFFFF;
+
+    /** Writes within this window share one force(). */
+    static final long FLUSH_DELAY_MS = 250L;
+
+    private static final Object LOCK = new Object();
+
+    private static final class Entry {
+        final long seq;
+        final double amount;
+        final String currency;
+        final long timestampMs;
+        int slot = -1;
+        boolean delivered = false;
+
+        Entry(long seq, double amount, String currency, long timestampMs) {
+            this.seq = seq;
+            this.amount = amount;
+            this.currency = currency != null ? currency : "";
+            this.timestampMs = timestampMs;
+        }
+    }
+
+    private static HandlerThread sThread;
+    private static Handler sHandler;
+    private static MappedByteBuffer sMap;
+    private static final List<Entry> sPending = new ArrayList<Entry>();
+    private static final String[] sCurrencies = new String[CURRENCY_SLOTS];
+    private static long sNextSeq = 1L;
+    /** Ring position to try first for the next record. */
+    private static int sNextSlot = 0;
+    /** Slots holding a pending record. */
+    private static final boolean[] sSlotUsed = new boolean[CAPACITY];
+    private static boolean sFlushScheduled = false;
+    /** Set once the journal is mapped or has failed to; entries are drained only after that. */
+    private static boolean sReady = false;
+
+    private static long sAppended = 0L;
+    private static long sRestored = 0L;
+    private static long sAcked = 0L;
+    private static long sFlushes = 0L;
+    private static long sUnjournaled = 0L;
+
+    private RewardJournal() {
+    }
+
+    /** Maps the journal on a background thread and restores unacknowledged entries. */
+    static void open(final Context context) {
+        synchronized (LOCK) {
+            if (context == null || sThread != null) {
+                return;
+            }
+            sThread = new HandlerThread("DefoldAppodealRewards");
+            sThread.start();
+            sHandler = new Handler(sThread.getLooper());
+        }
+
+        sHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(context.getFilesDir(), FILE_NAME);
+                try {
+                    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    try {
+                        boolean fresh = raf.length() != FILE_SIZE;
+                        if (fresh) {
+                            raf.setLength(0L);
+                            raf.setLength(FILE_SIZE);
+                        }
+                        MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, FILE_SIZE);
+                        map.order(ByteOrder.LITTLE_ENDIAN);
+                        if (fresh || map.getInt(0) != MAGIC) {
+                            format(map);
+                        }
+                        attach(map);
+                    } finally {
+                        // The mapping stays valid after the file is closed.
+                        raf.close();
+                    }
+                } catch (Throwable throwable) {
+                    Log.e(TAG, "reward journal unavailable, rewards kept in memory only: " + throwable);
+                    synchronized (LOCK) {
+                        sReady = true;
+                    }
+                }
+            }
+        });
+    }
+
+    private static void format(MappedByteBuffer map) {
+        for (int i = 0; i < FILE_SIZE; i++) {
+            map.put(i, (byte) 0);
+        }
+        map.putInt(0, MAGIC);
+        map.force();
+    }
+
+    private static void attach(MappedByteBuffer map) {
+        synchronized (LOCK) {
+            for (int i = 0; i < CURRENCY_SLOTS; i++) {
+                int base = HEADER_SIZE + i * CURRENCY_SIZE;
+                int length = map.get(base) & 0xFF;
+                if (length > 0 && length < CURRENCY_SIZE) {
+                    byte[] bytes = new byte[length];
+                    for (int b = 0; b < length; b++) {
+                        bytes[b] = map.get(base + 1 + b);
+                    }
+                    sCurrencies[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+            }
+
+            // Entries appended before the journal was mapped go after the restored ones.
+            List<Entry> early = new ArrayList<Entry>(sPending);
+            sPending.clear();
+            long maxSeq = 0L;
+            int lastSlot = -1;
+            for (int slot = 0; slot < CAPACITY; slot++) {
+                int base = RECORDS_OFFSET + slot * RECORD_SIZE;
+                byte state = map.get(base + REC_STATE);
+                if (state == STATE_EMPTY) {
+                    continue;
+                }
+                long seq = map.getLong(base + REC_SEQ);
+                if (seq >= maxSeq) {
+                    maxSeq = seq;
+                    lastSlot = slot;
+                }
+                if (state != STATE_PENDING) {
+                    continue;
+                }
+                int currency = map.getShort(base + REC_CURRENCY) & 0xFFFF;
+                Entry entry = new Entry(seq, map.getDouble(base + REC_AMOUNT),
+                    currency < CURRENCY_SLOTS ? sCurrencies[currency] : "",
+                    map.getLong(base + REC_TIMESTAMP));
+                entry.slot = slot;
+                sSlotUsed[slot] = true;
+                sPending.add(entry);
+                sRestored++;
+            }
+            Collections.sort(sPending, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry a, Entry b) {
+                    return a.seq < b.seq ? -1 : a.seq == b.seq ? 0 : 1;
+                }
+            });
+            sMap = map;
+            sNextSlot = (lastSlot + 1) % CAPACITY;
+            sNextSeq = Math.max(map.getLong(HEADER_NEXT_SEQ), maxSeq + 1L);
+            sReady = true;
+
+            for (Entry entry : early) {
+                Entry renumbered = new Entry(sNextSeq++, entry.amount, entry.currency, entry.timestampMs);
+                sPending.add(renumbered);
+                writeLocked(renumbered);
+            }
+            if (sRestored > 0L) {
+                Log.i(TAG, "reward journal: restored " + sRestored + " unacknowledged rewards");
+            }
+        }
+        BridgeState.publish();
+    }
+
+    /** Records a granted reward. Safe on the SDK callback thread; no disk I/O. */
+    static void append(double amount, String currency) {
+        synchronized (LOCK) {
+            // Before the journal is mapped the id is provisional; attach() renumbers.
+            Entry entry = new Entry(sNextSeq++, amount, currency, System.currentTimeMillis());
+            sPending.add(entry);
+            sAppended++;
+            if (sMap != null) {
+                writeLocked(entry);
+            }
+        }
+        BridgeState.publish();
+    }
+
+    private static void writeLocked(Entry entry) {
+        int currency = currencyIndexLocked(entry.currency);
+        if (currency == NO_CURRENCY && !entry.currency.isEmpty()) {
+            // A record without its currency would come back as a different reward.
+            sUnjournaled++;
+            Log.e(TAG, "reward journal has no currency slot for \"" + entry.currency
+                + "\", seq=" + entry.seq + " kept in memory only");
+            return;
+        }
+
+        int slot = -1;
+        for (int i = 0; i < CAPACITY; i++) {
+            int candidate = (sNextSlot + i) % CAPACITY;
+            if (!sSlotUsed[candidate]) {
+                slot = candidate;
+                break;
+            }
+        }
+        if (slot < 0) {
+            sUnjournaled++;
+            Log.e(TAG, "reward journal full, seq=" + entry.seq + " kept in memory only");
+            return;
+        }
+
+        sNextSlot = (slot + 1) % CAPACITY;
+        sSlotUsed[slot] = true;
+        int base = RECORDS_OFFSET + slot * RECORD_SIZE;
+        sMap.putLong(HEADER_NEXT_SEQ, sNextSeq);
+        sMap.putLong(base + REC_SEQ, entry.seq);
+        sMap.putDouble(base + REC_AMOUNT, entry.amount);
+        sMap.putLong(base + REC_TIMESTAMP, entry.timestampMs);
+        sMap.putShort(base + REC_CURRENCY, (short) currency);
+        sMap.put(base + REC_STATE, STATE_PENDING);
+        entry.slot = slot;
+        scheduleFlushLocked();
+    }
+
+    /**
+     * Table index for {@code currency}, or {@link #NO_CURRENCY} if it is empty,
+     * too long, or every slot names a currency a journaled pending record still
+     * uses. A slot no such record references is reused for a new name.
+     */
+    private static int currencyIndexLocked(String currency) {
+        byte[] bytes = currency.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || bytes.length >= CURRENCY_SIZE) {
+            return NO_CURRENCY;
+        }
+        int free = -1;
+        for (int i = 0; i < CURRENCY_SLOTS; i++) {
+            if (currency.equals(sCurrencies[i])) {
+                return i;
+            }
+            if (free < 0 && (sCurrencies[i] == null || !currencyReferencedLocked(sCurrencies[i]))) {
+                free = i;
+            }
+        }
+        if (free < 0) {
+            return NO_CURRENCY;
+        }
+
+        // Clear the length first so a kill mid-write leaves the slot empty.
+        int base = HEADER_SIZE + free * CURRENCY_SIZE;
+        sMap.put(base, (byte) 0);
+        for (int b = 0; b < bytes.length; b++) {
+            sMap.put(base + 1 + b, bytes[b]);
+        }
+        sMap.put(base, (byte) bytes.length);
+        sCurrencies[free] = currency;
+        return free;
+    }
+
+    private static boolean currencyReferencedLocked(String currency) {
+        for (Entry entry : sPending) {
+            if (entry.slot >= 0 && entry.currency.equals(currency)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void scheduleFlushLocked() {
+        if (sFlushScheduled || sHandler == null) {
+            return;
+        }
+        sFlushScheduled = true;
+        sHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                MappedByteBuffer map;
+                synchronized (LOCK) {
+                    sFlushScheduled = false;
+                    map = sMap;
+                }
+                if (map == null) {
+                    return;
+                }
+                try {
+                    map.force();
+                    sFlushes++;
+                } catch (Throwable throwable) {
+                    Log.w(TAG, "reward journal flush failed: " + throwable);
+                }
+            }
+        }, FLUSH_DELAY_MS);
+    }
+
+    /**
+     * Unacknowledged rewards not yet returned in this process, one per line:
+     * {@code seq\tamount\tcurrency\ttimestamp_ms}. Parsed natively.
+     */
+    static String drain() {
+        StringBuilder out = new StringBuilder();
+        synchronized (LOCK) {
+            if (!sReady) {
+                return "";
+            }
+            for (Entry entry : sPending) {
+                if (entry.delivered) {
+                    continue;
+                }
+                entry.delivered = true;
+                out.append(entry.seq)
+                    .append('\t').append(entry.amount)
+                    .append('\t').append(entry.currency.replace('\t', ' ').replace('\n', ' '))
+                    .append('\t').append(entry.timestampMs)
+                    .append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /** Marks every returned entry up to and including {@code seq} as granted. */
+    static void acknowledge(long seq) {
+        synchronized (LOCK) {
+            for (int i = sPending.size() - 1; i >= 0; i--) {
+                Entry entry = sPending.get(i);
+                if (!entry.delivered || entry.seq > seq) {
+                    continue;
+                }
+                if (sMap != null && entry.slot >= 0) {
+                    sMap.put(RECORDS_OFFSET + entry.slot * RECORD_SIZE + REC_STATE, STATE_ACKED);
+                    sSlotUsed[entry.slot] = false;
+                }
+                sPending.remove(i);
+                sAcked++;
+            }
+            scheduleFlushLocked();
+        }
+        BridgeState.publish();
+    }
+
+    /** Rewards granted but not yet acknowledged, delivered or not. */
+    static int pendingCount() {
+        synchronized (LOCK) {
+            return sPending.size();
+        }
+    }
+
+    static void appendStats(StringBuilder out) {
+        synchronized (LOCK) {
+            out.append("rewards")
+                .append("\tjournal=").append(sMap != null ? 1 : 0)
+                .append("\tpending=").append(sPending.size())
+                .append("\tappended=").append(sAppended)
+                .append("\trestored=").append(sRestored)
+                .append("\tacked=").append(sAcked)
+                .append("\tflushes=").append(sFlushes)
+                .append("\tunjournaled=").append(sUnjournaled)
+                .append('\n');
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.defold.appodeal;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.appodeal.ads.Appodeal;
+
+/**
+ * One session per show_* call, taken from a small fixed pool. Every ad event
+ * of that type is attributed to the active session and carries its id to
+ * Lua, and the rewarded close logic reads the session's own shown/finished
+ * flags instead of globals.
+ *
+ * <p>A session is {@link #REQUESTED} until {@code Appodeal.show} is actually
+ * called. Presentation callbacks (shown, clicked, reward, closed) that arrive
+ * before that belong to an earlier show and are dropped, so a late duplicate
+ * cannot end or corrupt the new one.
+ *
+ * <p>Whether the SDK reported shown / reward is tracked per SDK show rather
+ * than per session: a show that timed out or was superseded has released its
+ * session, but its late reward and close still belong to that show.
+ */
+final class ShowSessions {
+    private static final String TAG = "DefoldAppodeal";
+    static final int POOL_SIZE = 4;
+
+    static final int REQUESTED = 0;
+    static final int PRESENTING = 1;
+    static final int SHOWN = 2;
+
+    static final class Session {
+        int id;
+        int adType;
+        int state;
+        long requestedAtMs;
+        long presentedAtMs;
+        long shownAtMs;
+        boolean active;
+    }
+
+    /** One Appodeal.show call, from {@link #markPresenting} to {@link #endPresentation}. */
+    private static final class Presentation {
+        boolean open;
+        boolean shownFired;
+        boolean finishedFired;
+    }
+
+    private static final Object LOCK = new Object();
+    private static final Session[] sPool = new Session[POOL_SIZE];
+    private static Session sInterstitial;
+    private static Session sRewarded;
+    private static final Presentation INTERSTITIAL_PRESENTATION = new Presentation();
+    private static final Presentation REWARDED_PRESENTATION = new Presentation();
+    private static int sNextId = 0;
+
+    private static long sStarted = 0L;
+    private static long sSuperseded = 0L;
+    private static long sStaleDropped = 0L;
+    private static long sTimedOut = 0L;
+    private static final LatencyStats INTERSTITIAL_LATENCY = new LatencyStats("interstitial");
+    private static final LatencyStats REWARDED_LATENCY = new LatencyStats("rewarded");
+
+    static {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            sPool[i] = new Session();
+        }
+    }
+
+    private ShowSessions() {
+    }
+
+    private static final class LatencyStats {
+        final String label;
+        long count = 0L;
+        long totalMs = 0L;
+        long maxMs = 0L;
+        long lastMs = 0L;
+        long presentTotalMs = 0L;
+
+        LatencyStats(String label) {
+            this.label = label;
+        }
+    }
+
+    /** Starts a session for a show_* call, replacing any unfinished one of the same type. */
+    static int begin(int adType) {
+        synchronized (LOCK) {
+            Session previous = activeLocked(adType);
+            if (previous != null) {
+                sSuperseded++;
+                releaseLocked(previous);
+            }
+
+            Session session = null;
+            for (int i = 0; i < POOL_SIZE; i++) {
+                if (!sPool[i].active) {
+                    session = sPool[i];
+                    break;
+                }
+            }
+            if (session == null) {
+                // Only two types can be active at once, so the pool never runs dry.
+                session = new Session();
+            }
+
+            session.id = ++sNextId;
+            session.adType = adType;
+            session.state = REQUESTED;
+            session.requestedAtMs = SystemClock.uptimeMillis();
+            session.presentedAtMs = 0L;
+            session.shownAtMs = 0L;
+            session.active = true;
+            setActiveLocked(adType, session);
+            sStarted++;
+            return session.id;
+        }
+    }
+
+    /** Called right before {@code Appodeal.show}; returns the session id, or 0 if none is active. */
+    static int markPresenting(int adType) {
+        synchronized (LOCK) {
+            Presentation presentation = presentationLocked(adType);
+            if (!presentation.open) {
+                presentation.open = true;
+                presentation.shownFired = false;
+                presentation.finishedFired = false;
+            }
+            Session session = activeLocked(adType);
+            if (session == null) {
+                return 0;
+            }
+            if (session.state == REQUESTED) {
+                session.state = PRESENTING;
+                session.presentedAtMs = SystemClock.uptimeMillis();
+            }
+            return session.id;
+        }
+    }
+
+    /** True while session {@code id} is still waiting for shown or show_failed after Appodeal.show. */
+    static boolean isAwaitingShown(int adType, int id) {
+        synchronized (LOCK) {
+            Session session = activeLocked(adType);
+            return session != null && session.id == id && session.state == PRESENTING;
+        }
+    }
+
+    /** True from Appodeal.show until the session ends. */
+    static boolean isShowing(int adType) {
+        synchronized (LOCK) {
+            Session session = activeLocked(adType);
+            return session != null && session.state != REQUESTED;
+        }
+    }
+
+    /** Rewarded close: whether the SDK show being closed reported shown / reward. */
+    static boolean wasShown(int adType) {
+        synchronized (LOCK) {
+            return presentationLocked(adType).shownFired;
+        }
+    }
+
+    static boolean wasFinished(int adType) {
+        synchronized (LOCK) {
+            return presentationLocked(adType).finishedFired;
+        }
+    }
+
+    /** Called on the SDK's closed / show_failed callback, after the flags were read. */
+    static void endPresentation(int adType) {
+        synchronized (LOCK) {
+            Presentation presentation = presentationLocked(adType);
+            presentation.open = false;
+            presentation.shownFired = false;
+            presentation.finishedFired = false;
+        }
+    }
+
+    /**
+     * Attributes an event to the active session and returns its id, 0 when no
+     * show is in progress, or -1 when the event is a stale presentation
+     * callback that must not reach Lua. Terminal events end the session.
+     */
+    static int onEvent(int adType, String event) {
+        synchronized (LOCK) {
+            // Recorded even for stale events: they still belong to an SDK show.
+            if ("shown".equals(event)) {
+                presentationLocked(adType).shownFired = true;
+            } else if ("reward".equals(event)) {
+                presentationLocked(adType).finishedFired = true;
+            }
+
+            Session session = activeLocked(adType);
+            boolean presentation = "shown".equals(event) || "clicked".equals(event)
+                || "reward".equals(event) || "closed".equals(event);
+            if (session == null) {
+                return 0;
+            }
+            if (presentation && session.state == REQUESTED) {
+                sStaleDropped++;
+                Log.w(TAG, "session " + session.id + ": dropping stale " + event + " from an earlier show");
+                return -1;
+            }
+            // A background cache slot can expire while the requested ad is on
+            // screen. That does not end the session; the event goes out
+            // unattributed so the show_* callback keeps waiting for closed.
+            if ("expired".equals(event) && session.state != REQUESTED) {
+                return 0;
+            }
+
+            int id = session.id;
+            if ("shown".equals(event)) {
+                if (session.state != SHOWN) {
+                    session.state = SHOWN;
+                    session.shownAtMs = SystemClock.uptimeMillis();
+                    recordLatencyLocked(session);
+                }
+            } else if (isTerminal(event)) {
+                if ("show_timeout".equals(event)) {
+                    sTimedOut++;
+                }
+                releaseLocked(session);
+            }
+            return id;
+        }
+    }
+
+    private static boolean isTerminal(String event) {
+        return "show_failed".equals(event) || "closed".equals(event) || "expired".equals(event)
+            || "load_timeout".equals(event) || "show_timeout".equals(event);
+    }
+
+    private static void recordLatencyLocked(Session session) {
+        LatencyStats stats = session.adType == Appodeal.REWARDED_VIDEO ? REWARDED_LATENCY : INTERSTITIAL_LATENCY;
+        long latency = session.shownAtMs - session.requestedAtMs;
+        stats.count++;
+        stats.totalMs += latency;
+        stats.lastMs = latency;
+        stats.maxMs = Math.max(stats.maxMs, latency);
+        if (session.presentedAtMs > 0L) {
+            stats.presentTotalMs += session.shownAtMs - session.presentedAtMs;
+        }
+    }
+
+    private static Presentation presentationLocked(int adType) {
+        return adType == Appodeal.REWARDED_VIDEO ? REWARDED_PRESENTATION : INTERSTITIAL_PRESENTATION;
+    }
+
+    private static Session activeLocked(int adType) {
+        return adType == Appodeal.REWARDED_VIDEO ? sRewarded : sInterstitial;
+    }
+
+    private static void setActiveLocked(int adType, Session session) {
+        if (adType == Appodeal.REWARDED_VIDEO) {
+            sRewarded = session;
+        } else {
+            sInterstitial = session;
+        }
+    }
+
+    private static void releaseLocked(Session session) {
+        session.active = false;
+        if (activeLocked(session.adType) == session) {
+            setActiveLocked(session.adType, null);
+        }
+    }
+
+    static void appendStats(StringBuilder out) {
+        synchronized (LOCK) {
+            out.append("sessions")
+                .append("\tstarted=").append(sStarted)
+                .append("\tsuperseded=").append(sSuperseded)
+                .append("\tstale_dropped=").append(sStaleDropped)
+                .append("\ttimed_out=").append(sTimedOut)
+                .append('\n');
+            appendLatency(out, INTERSTITIAL_LATENCY);
+            appendLatency(out, REWARDED_LATENCY);
+        }
+    }
+
+    private static void appendLatency(StringBuilder out, LatencyStats stats) {
+        out.append("sessions.").append(stats.label)
+            .append("\tshown=").append(stats.count)
+            .append("\tavg_shown_ms=").append(stats.count > 0L ? stats.totalMs / stats.count : 0L)
+            .append("\tmax_shown_ms=").append(stats.maxMs)
+            .append("\tlast_shown_ms=").append(stats.lastMs)
+            .append("\tavg_present_ms=").append(stats.count > 0L ? stats.presentTotalMs / stats.count : 0L)
+            .append('\n');
+    }
+}
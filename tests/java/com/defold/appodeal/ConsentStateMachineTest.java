@@ -0,0 +1,269 @@
+package com.defold.appodeal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plain-JVM tests for {@link ConsentStateMachine}, driven through a fake
+ * {@link ConsentStateMachine.Effects} with a virtual clock. Run with
+ * tools/run_jvm_tests.sh.
+ */
+public final class ConsentStateMachineTest {
+    private static final class FakeEffects implements ConsentStateMachine.Effects {
+        private static final class Task {
+            final long dueMs;
+            final Runnable runnable;
+
+            Task(long dueMs, Runnable runnable) {
+                this.dueMs = dueMs;
+                this.runnable = runnable;
+            }
+        }
+
+        final List<Task> tasks = new ArrayList<Task>();
+        long nowMs = 0L;
+        boolean statusKnown = false;
+        String status = "UNKNOWN";
+        int infoRequests = 0;
+        int shows = 0;
+        int preloadedShows = 0;
+        int loads = 0;
+        int lastRequestId = 0;
+        int lastPreloadId = 0;
+
+        @Override
+        public void requestConsentInfoUpdate() {
+            infoRequests++;
+        }
+
+        @Override
+        public boolean isConsentStatusKnown() {
+            return statusKnown;
+        }
+
+        @Override
+        public boolean showForm(int requestId) {
+            shows++;
+            lastRequestId = requestId;
+            return true;
+        }
+
+        @Override
+        public boolean loadForm(int preloadId) {
+            loads++;
+            lastPreloadId = preloadId;
+            return true;
+        }
+
+        @Override
+        public boolean showPreloadedForm(int requestId) {
+            preloadedShows++;
+            lastRequestId = requestId;
+            return true;
+        }
+
+        @Override
+        public void discardPreloadedForm() {
+        }
+
+        @Override
+        public String currentConsentStatus() {
+            return status;
+        }
+
+        @Override
+        public void postDelayed(String name, Runnable task, long delayMs) {
+            tasks.add(new Task(nowMs + delayMs, task));
+        }
+
+        @Override
+        public void log(String message) {
+        }
+
+        /** Runs every task due within {@code ms}, in due order, including ones they post. */
+        void advance(long ms) {
+            long target = nowMs + ms;
+            while (true) {
+                Task next = null;
+                for (Task task : tasks) {
+                    if (task.dueMs <= target && (next == null || task.dueMs < next.dueMs)) {
+                        next = task;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                tasks.remove(next);
+                nowMs = next.dueMs;
+                next.runnable.run();
+            }
+            nowMs = target;
+        }
+    }
+
+    private static int sPassed = 0;
+
+    public static void main(String[] args) {
+        showBeforeInitSkipsStabilization();
+        showWaitsForStabilizationAfterInit();
+        pendingWithoutFocusGivesUp();
+        infoRetriesBackOff();
+        preloadTimeoutFallsBackToRegularShow();
+        preloadedFormIsUsedOnce();
+        stalePreloadIdIsRejected();
+        dismissAfterUpdateFinishesForm();
+        System.out.println("ConsentStateMachineTest: " + sPassed + " passed");
+    }
+
+    private static void showBeforeInitSkipsStabilization() {
+        FakeEffects effects = new FakeEffects();
+        effects.statusKnown = true;
+        ConsentStateMachine machine = new ConsentStateMachine(effects);
+        machine.onActivityAvailable(true);
+
+        machine.onShowRequested();
+
+        check(effects.shows == 1, "form shown without init");
+        check(machine.getFormState() == ConsentStateMachine.FormState.REQUESTED, "form requested");
+        pass();
+    }
+
+    private static void showWaitsForStabilizationAfterInit() {
+        FakeEffects effects = new FakeEffects();
+        effects.statusKnown = true;
+        ConsentStateMachine machine = new ConsentStateMachine(effects);
+        machine.onInitialize(true);
+        machine.onShowRequested();
+
+        check(effects.shows == 0, "no show during stabilization");
+        effects.advance(ConsentStateMachine.MIN_ACTIVITY_STABLE_MS);
+        check(effects.shows == 1, "shown once stable");
+        pass();
+    }
+
+    private static void pendingWithoutFocusGivesUp() {
+        FakeEffects effects = new FakeEffects();
+        ConsentStateMachine machine = new ConsentStateMachine(effects);
+        machine.onInitialize(false);
+        machine.onInfoUpdateFinished(true);
+        machine.onShowRequested();
+
+        effects.advance(ConsentStateMachine.PENDING_GIVE_UP_MS - 1L);
+        check(machine.getFormState() == ConsentStateMachine.FormState.PENDING, "still pending before deadline");
+        effects.advance(1L);
+        check(machine.getFormState() == ConsentStateMachine.FormState.IDLE, "pending form dropped at deadline");
+        check(effects.shows == 0, "never shown without focus");
+
+        machine.onShowRequested();
+        check(machine.getFormState() == ConsentStateMachine.FormState.PENDING, "a new request is accepted");
+        pass();
+    }
+
+    private static void infoRetriesBackOff() {
+        FakeEffects effects = new FakeEffects();
+        ConsentStateMachine machine = new ConsentStateMachine(effects);
+        machine.onInitialize(true);
+        effects.advance(ConsentStateMachine.MIN_ACTIVITY_STABLE_MS);
+        machine.onInfoUpdateFinished(false);
+        check(effects.infoRequests == 1, "one update from init");
+
+        machine.onShowRequested();
+        check(effects.infoRequests == 2, "show request retries the failed update once");
+        machine.onInfoUpdateFinished(false);
+        check(effects.infoRequests == 2, "failed update is not retried immediately");
+
+        long delay = ConsentStateMachine.INFO_RETRY_BASE_DELAY_MS;
+        for (int retry = 0; retry < ConsentStateMachine.MAX_INFO_RETRIES; retry++) {
+            effects.advance(delay - 1L);
+            check(effects.infoRequests == 2 + retry, "retry " + retry + " waits for its backoff");
+            effects.advance(1L);
+            check(effects.infoRequests == 3 + retry, "retry " + retry + " after " + delay + "ms");
+            machine.onInfoUpdateFinished(false);
+            delay *= 2L;
+        }
+        check(machine.getFormState() == ConsentStateMachine.FormState.IDLE, "gives up after max retries");
+        check(effects.shows == 0, "never shown without consent info");
+        pass();
+    }
+
+    private static void preloadTimeoutFallsBackToRegularShow() {
+        FakeEffects effects = new FakeEffects();
+        ConsentStateMachine machine = new ConsentStateMachine(effects);
+        machine.onInitialize(true);
+        machine.onInfoUpdateFinished(true);
+        machine.onPreloadRequested();
+        check(effects.loads == 1, "preload started");
+        int preloadId = effects.lastPreloadId;
+
+        effects.advance(ConsentStateMachine.MIN_ACTIVITY_STABLE_MS);
+        machine.onShowRequested();
+        check(effects.shows == 0, "show waits for the preload");
+
+        effects.advance(ConsentStateMachine.PRELOAD_TIMEOUT_MS);
+        check(effects.shows == 1, "regular show after preload timeout");
+        check(machine.getPreloadState() == ConsentStateMachine.PreloadState.NONE, "preload abandoned");
+        check(!machine.isLoadingPreload(preloadId), "late load result is stale");
+
+        machine.onFormLoaded(preloadId);
+        check(machine.getPreloadState() == ConsentStateMachine.PreloadState.NONE, "late load ignored");
+        pass();
+    }
+
+    private static void preloadedFormIsUsedOnce() {
+        FakeEffects effects = new FakeEffects();
+        ConsentStateMachine machine = new ConsentStateMachine(effects);
+        machine.onInitialize(true);
+        machine.onInfoUpdateFinished(true);
+        machine.onPreloadRequested();
+        machine.onFormLoaded(effects.lastPreloadId);
+        check(machine.getPreloadState() == ConsentStateMachine.PreloadState.READY, "preload ready");
+
+        effects.advance(ConsentStateMachine.MIN_ACTIVITY_STABLE_MS);
+        machine.onShowRequested();
+        check(effects.preloadedShows == 1 && effects.shows == 0, "preloaded form shown");
+        check(machine.getPreloadState() == ConsentStateMachine.PreloadState.NONE, "preload consumed");
+        pass();
+    }
+
+    private static void stalePreloadIdIsRejected() {
+        FakeEffects effects = new FakeEffects();
+        ConsentStateMachine machine = new ConsentStateMachine(effects);
+        machine.onInitialize(true);
+        machine.onInfoUpdateFinished(true);
+        machine.onPreloadRequested();
+        int staleId = effects.lastPreloadId;
+
+        machine.onInitialize(true);
+        check(!machine.isLoadingPreload(staleId), "re-init invalidates the preload");
+        machine.onFormLoaded(staleId);
+        check(machine.getPreloadState() == ConsentStateMachine.PreloadState.NONE, "stale form ignored");
+        pass();
+    }
+
+    private static void dismissAfterUpdateFinishesForm() {
+        FakeEffects effects = new FakeEffects();
+        ConsentStateMachine machine = new ConsentStateMachine(effects);
+        machine.onInitialize(true);
+        machine.onInfoUpdateFinished(true);
+        effects.advance(ConsentStateMachine.MIN_ACTIVITY_STABLE_MS);
+        machine.onShowRequested();
+        machine.onFormOpened(effects.lastRequestId);
+        check(machine.getFormState() == ConsentStateMachine.FormState.SHOWING, "form showing");
+
+        machine.onFormDismissed(effects.lastRequestId);
+        check(machine.getFormState() == ConsentStateMachine.FormState.IDLE, "dismiss ends the flow");
+        effects.advance(ConsentStateMachine.PENDING_GIVE_UP_MS);
+        check(machine.getFormState() == ConsentStateMachine.FormState.IDLE, "stale timers do nothing");
+        pass();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static void pass() {
+        sPassed++;
+    }
+}
@@ -0,0 +1,303 @@
+#!/usr/bin/env python3
+"""Regenerates everything derived from tools/adapter_presets.json.
+
+The adapter list and the presets are defined once in adapter_presets.json.
+This script writes the preset app manifests, the adapter dependencies in
+build.gradle, the adapter rules in proguard-rules.pro, the adapter table in
+AdapterPresets.java and the preset list in README.md. With --check nothing is
+written and the script fails if any of them is stale.
+
+excludeJars drops an adapter's classes but not the manifest entries and
+apd_adapters assets merged from its AAR. --verify-apk APK --preset NAME lists
+those leftovers in a built APK: components under an excluded adapter's
+packages (a leftover provider crashes the app at startup) and apd_adapters
+assets of excluded adapters. It needs aapt2 on PATH for the manifest part.
+"""
+
+import json
+import os
+import re
+import subprocess
+import sys
+import zipfile
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+DEFINITION = os.path.join(ROOT, "tools", "adapter_presets.json")
+PRESET_DIR = os.path.join(ROOT, "appodeal", "adapter_presets")
+GRADLE = os.path.join(ROOT, "appodeal", "manifests", "android", "build.gradle")
+PROGUARD = os.path.join(ROOT, "appodeal", "manifests", "android", "proguard-rules.pro")
+JAVA = os.path.join(ROOT, "appodeal", "src", "java", "com", "defold", "appodeal", "AdapterPresets.java")
+README = os.path.join(ROOT, "README.md")
+
+GENERATOR = "tools/gen_adapter_presets.py"
+PLATFORMS = ("armv7-android", "arm64-android")
+# The preset that keeps every adapter needs no app manifest.
+FULL = "full"
+
+BLOCKS = {
+    GRADLE: ("    // BEGIN mediation adapters (generated by %s, do not edit)" % GENERATOR,
+             "    // END mediation adapters"),
+    PROGUARD: ("# BEGIN mediation adapters (generated by %s, do not edit)" % GENERATOR,
+               "# END mediation adapters"),
+    JAVA: ("    // BEGIN adapter table (generated by %s, do not edit)" % GENERATOR,
+           "    // END adapter table"),
+    README: ("<!-- BEGIN adapter presets (generated by %s, do not edit) -->" % GENERATOR,
+             "<!-- END adapter presets -->"),
+}
+
+COMPONENT_RE = re.compile(r"E: (activity|activity-alias|service|receiver|provider) ")
+NAME_RE = re.compile(r'A: (?:http://schemas\.android\.com/apk/res/android:)?name\([^)]*\)="([^"]+)"')
+
+
+def load():
+    with open(DEFINITION, encoding="utf-8") as handle:
+        definition = json.load(handle)
+    adapters = definition["adapters"]
+    ids = [adapter["id"] for adapter in adapters]
+    for name, members in definition["presets"].items():
+        for member in members:
+            if member not in ids:
+                sys.exit("preset %s names unknown adapter %s" % (name, member))
+    if sorted(definition["presets"][FULL]) != sorted(ids):
+        sys.exit("preset %s must keep every adapter" % FULL)
+    return adapters, definition["presets"]
+
+
+def prefixes(adapter):
+    builder_package = adapter["builder"].rsplit(".", 1)[0]
+    return [builder_package] + adapter["packages"]
+
+
+def excluded(adapters, presets, name):
+    kept = set(presets[name])
+    return [adapter for adapter in adapters if adapter["id"] not in kept]
+
+
+def describe(members):
+    if len(members) == 1:
+        return members[0]
+    return ", ".join(members[:-1]) + " and " + members[-1]
+
+
+def render_manifest(adapters, presets, name):
+    lines = [
+        "# Appodeal adapter preset \"%s\". Keeps %s." % (name, describe(presets[name])),
+        "# Generated by %s from tools/adapter_presets.json, do not edit." % GENERATOR,
+        "# Use as [native_extension] app_manifest in game.project, or copy the",
+        "# excludeJars entries into your own app manifest. Patterns match the jars",
+        "# Gradle resolves for build.gradle.",
+        "",
+        "platforms:",
+    ]
+    for platform in PLATFORMS:
+        lines.append("    %s:" % platform)
+        lines.append("        context:")
+        lines.append("            excludeJars:")
+        for adapter in excluded(adapters, presets, name):
+            for jar in adapter["jars"]:
+                lines.append("                - '%s'" % jar)
+    return "\n".join(lines) + "\n"
+
+
+def render_gradle(adapters):
+    lines = ["    implementation \"%s\"" % adapter["artifact"]
+             for adapter in sorted(adapters, key=lambda adapter: adapter["artifact"])]
+    return "\n".join(lines)
+
+
+def render_proguard(adapters):
+    lines = [
+        "# Adapter presets drop some of these jars, so every network is listed and",
+        "# the rules only keep or silence classes that may be absent.",
+    ]
+    for adapter in adapters:
+        for package in adapter.get("keep", []):
+            lines.append("-keep class %s.** { *; }" % package)
+        for package in adapter["packages"]:
+            lines.append("-dontwarn %s.**" % package)
+    return "\n".join(lines)
+
+
+def java_string(value):
+    return '"%s"' % value.replace("\\", "\\\\").replace('"', '\\"')
+
+
+def render_java(adapters, presets):
+    lines = [
+        "    /** {id, network builder class, package prefixes separated by ','}. */",
+        "    private static final String[][] ADAPTERS = new String[][] {",
+    ]
+    for adapter in adapters:
+        lines.append("        { %s, %s, %s }," % (
+            java_string(adapter["id"]), java_string(adapter["builder"]),
+            java_string(",".join(prefixes(adapter)))))
+    lines.append("    };")
+    names = sorted(presets, key=lambda name: len(presets[name]))
+    lines.append("    /** Preset names, smallest first. */")
+    lines.append("    private static final String[] PRESET_NAMES = new String[] { %s };"
+                 % ", ".join(java_string(name) for name in names))
+    lines.append("    /** Adapter ids each preset keeps, indexed like {@link #PRESET_NAMES}. */")
+    lines.append("    private static final String[][] PRESET_ADAPTERS = new String[][] {")
+    for name in names:
+        lines.append("        { %s }," % ", ".join(java_string(member) for member in presets[name]))
+    lines.append("    };")
+    return "\n".join(lines)
+
+
+def render_readme(presets):
+    names = sorted(presets, key=lambda name: len(presets[name]))
+    lines = []
+    previous = None
+    for name in names:
+        if name == FULL:
+            lines.append("- `%s`: every adapter in `build.gradle` (default, no app manifest needed)" % name)
+        elif previous is None:
+            lines.append("- `%s`: %s" % (name, ", ".join(presets[name])))
+        else:
+            added = [member for member in presets[name] if member not in presets[previous]]
+            lines.append("- `%s`: %s plus %s" % (name, previous, ", ".join(added)))
+        previous = name
+    return "\n".join(lines)
+
+
+def replace_block(path, text, body):
+    begin, end = BLOCKS[path]
+    start = text.find(begin)
+    stop = text.find(end)
+    if start < 0 or stop < 0:
+        sys.exit("generated block markers missing in " + path)
+    return text[:start] + begin + "\n" + body + "\n" + text[stop:]
+
+
+def outputs(adapters, presets):
+    """Maps each generated path to a function of its current text."""
+    result = {}
+    for name in presets:
+        if name == FULL:
+            continue
+        content = render_manifest(adapters, presets, name)
+        result[os.path.join(PRESET_DIR, name + ".appmanifest")] = lambda _text, content=content: content
+    bodies = {
+        GRADLE: render_gradle(adapters),
+        PROGUARD: render_proguard(adapters),
+        JAVA: render_java(adapters, presets),
+        README: render_readme(presets),
+    }
+    for path, body in bodies.items():
+        result[path] = lambda text, path=path, body=body: replace_block(path, text, body)
+    return result
+
+
+def read(path):
+    if not os.path.exists(path):
+        return ""
+    with open(path, encoding="utf-8") as handle:
+        return handle.read()
+
+
+def generate(adapters, presets, check):
+    stale = []
+    for path, render in sorted(outputs(adapters, presets).items()):
+        current = read(path)
+        updated = render(current)
+        if updated == current:
+            continue
+        stale.append(path)
+        if not check:
+            with open(path, "w", encoding="utf-8") as handle:
+                handle.write(updated)
+            print("updated " + os.path.relpath(path, ROOT))
+
+    for file_name in sorted(os.listdir(PRESET_DIR)):
+        if file_name.endswith(".appmanifest") and file_name[:-len(".appmanifest")] not in presets:
+            stale.append(os.path.join(PRESET_DIR, file_name))
+            print("no preset for %s, remove it" % os.path.join("appodeal", "adapter_presets", file_name))
+
+    if check:
+        for path in stale:
+            print("%s is stale, run %s" % (os.path.relpath(path, ROOT), GENERATOR))
+        return 1 if stale else 0
+    return 0
+
+
+def owner(name, adapters):
+    for adapter in adapters:
+        for prefix in prefixes(adapter):
+            if name.startswith(prefix + "."):
+                return adapter
+    return None
+
+
+def asset_owner(file_name, adapters):
+    name = file_name.lower().replace("_", "").replace("-", "")
+    for adapter in adapters:
+        if name.startswith(adapter["id"].replace("_", "")):
+            return adapter
+    return None
+
+
+def manifest_components(apk):
+    try:
+        dump = subprocess.run(["aapt2", "dump", "xmltree", "--file", "AndroidManifest.xml", apk],
+                              check=True, capture_output=True, text=True).stdout
+    except (OSError, subprocess.CalledProcessError) as error:
+        print("cannot read the merged manifest with aapt2: %s" % error)
+        return None
+
+    components = []
+    kind = None
+    for line in dump.splitlines():
+        element = COMPONENT_RE.search(line)
+        if element:
+            kind = element.group(1)
+            continue
+        name = NAME_RE.search(line)
+        if kind and name:
+            components.append((kind, name.group(1)))
+            kind = None
+    return components
+
+
+def verify_apk(adapters, presets, apk, preset):
+    if preset not in presets:
+        sys.exit("unknown preset " + preset)
+    dropped = excluded(adapters, presets, preset)
+    problems = []
+
+    components = manifest_components(apk)
+    if components is None:
+        problems.append("manifest not checked")
+    else:
+        for kind, name in components:
+            adapter = owner(name, dropped)
+            if adapter:
+                problems.append("%s %s belongs to excluded adapter %s" % (kind, name, adapter["id"]))
+
+    with zipfile.ZipFile(apk) as archive:
+        for entry in archive.namelist():
+            if not entry.startswith("assets/apd_adapters/"):
+                continue
+            adapter = asset_owner(os.path.basename(entry), dropped)
+            if adapter:
+                problems.append("asset %s belongs to excluded adapter %s" % (entry, adapter["id"]))
+
+    for problem in problems:
+        print(problem)
+    if not problems:
+        print("%s: no leftovers of adapters excluded by preset %s" % (os.path.basename(apk), preset))
+    return 1 if problems else 0
+
+
+def main():
+    args = sys.argv[1:]
+    adapters, presets = load()
+    if "--verify-apk" in args:
+        index = args.index("--verify-apk")
+        if index + 1 >= len(args) or "--preset" not in args or args.index("--preset") + 1 >= len(args):
+            sys.exit("usage: gen_adapter_presets.py --verify-apk APK --preset NAME")
+        return verify_apk(adapters, presets, args[index + 1], args[args.index("--preset") + 1])
+    return generate(adapters, presets, "--check" in args)
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,204 @@
+#!/usr/bin/env python3
+"""Regenerates the reflection keep rules in proguard-rules.pro.
+
+The names come from the constants in ReflectionTargets.java; the rules below
+only say how each constant is kept, so the rule data never ships in the APK.
+With --check nothing is written; the script fails if the generated block is
+stale, if a bridge source passes a string literal to a reflective lookup
+instead of a ReflectionTargets constant, or if a ReflectionTargets constant
+has no covering rule.
+"""
+
+import os
+import re
+import sys
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+JAVA_DIR = os.path.join(ROOT, "appodeal", "src", "java", "com", "defold", "appodeal")
+REGISTRY = os.path.join(JAVA_DIR, "ReflectionTargets.java")
+PROGUARD = os.path.join(ROOT, "appodeal", "manifests", "android", "proguard-rules.pro")
+
+BEGIN = "# BEGIN reflection targets (generated by tools/gen_proguard_rules.py, do not edit)"
+END = "# END reflection targets"
+
+CONSTANT_RE = re.compile(r'static final String ([A-Z_]+) = "([^"]*)";')
+IDENTIFIER_RE = re.compile(r"\b[A-Z][A-Z0-9_]*\b")
+LOOKUP_RE = re.compile(r'\b(?:forName|getMethod|getDeclaredMethod|getField|getDeclaredField|tryGetDefoldActivity)\(\s*"')
+MEMBER_RE = re.compile(r"([A-Za-z_$*][A-Za-z0-9_$*]*)\s*(?:\(|;)")
+# Classes the framework never shrinks, so they need no rule.
+FRAMEWORK_PREFIXES = ("android.", "java.")
+FRAMEWORK_CONSTANT_PREFIX = "ACTIVITY_THREAD"
+
+ENUM_MEMBERS = ["public static **[] values();", "public static ** valueOf(java.lang.String);", "<fields>;"]
+
+# (directive, target, members). Upper-case names in a target and the middle
+# element of a (modifiers, NAME, signature) member are ReflectionTargets
+# constants. Plain string members are wildcards for methods the bridge finds
+# by scanning names, not by looking one up.
+RULES = [
+    ("-keep class", "com.defold.appodeal.AppodealBridge", ["public static <methods>;", "native <methods>;"]),
+    ("-keepclassmembers class", "APPODEAL", [
+        ("public static ***", "INITIALIZE", "(...)"),
+        ("public static ***", "CACHE", "(...)"),
+        ("public static ***", "SET_AUTO_CACHE", "(...)"),
+        ("public static ***", "SET_LOG_LEVEL", "(...)"),
+        ("public static ***", "DESTROY", "(...)"),
+        ("public static ***", "GET_VERSION", "()"),
+        "public static *** set*Consent*(...);",
+        "public static *** set*Lgpd*(...);",
+        "public static *** set*LGPD*(...);",
+    ]),
+    ("-keep enum", "LOG_LEVEL", ENUM_MEMBERS),
+    ("-keep class", "CONSENT_MANAGER", [
+        ("public static ***", "INSTANCE", ""),
+        ("public ***", "STATUS", ""),
+        ("public ***", "REQUEST_CONSENT_INFO_UPDATE", "(...)"),
+        ("public ***", "LOAD_AND_SHOW_CONSENT_FORM", "(...)"),
+        ("public ***", "LOAD_CONSENT_FORM", "(...)"),
+        ("public ***", "LOAD_CONSENT_FORM_LEGACY", "(...)"),
+        ("public ***", "CAN_SHOW_ADS", "()"),
+        ("public ***", "GET_STATUS", "()"),
+        ("***", "SET_CONSENT_INFORMATION", "(...)"),
+        "*** setConsentInformation*(...);",
+        "public *** set*Consent*(...);",
+    ]),
+    ("-keep enum", "CONSENT_STATUS", ENUM_MEMBERS),
+    ("-keep class", "CONSENT_UPDATE_REQUEST_PARAMETERS", ["public <init>(...);"]),
+    ("-keep interface", "CONSENT_INFO_UPDATE_CALLBACK", ["<methods>;"]),
+    ("-keep class", "CONSENT_INFORMATION", ["<init>(...);"]),
+    # Status-backed implementations, whatever the consent SDK named them.
+    ("-keep class", "* extends CONSENT_INFORMATION", ["<init>(...);"]),
+    ("-keep interface", "com.appodeal.consent.**", ["<methods>;"]),
+    ("-keepclassmembers class", "com.appodeal.consent.**", [
+        ("public ***", "SHOW_CONSENT_FORM", "(android.app.Activity, ***)"),
+    ]),
+    ("-keep interface", "com.appodeal.ads.initializing.**", ["<methods>;"]),
+    ("-keepclassmembers class", "DEFOLD_ACTIVITY", [("static ***", "GET_ACTIVITY", "()")]),
+    ("-keepclassmembers class", "DEFOLD_ACTIVITY_LEGACY", [("static ***", "GET_ACTIVITY", "()")]),
+    ("-keepnames class", "com.appodeal.ads.adapters.**", []),
+    ("-keepnames class", "com.appodeal.ads.unified.**", []),
+]
+
+# Constants kept by a rule that does not name them.
+COVERED_BY = {
+    # Shipped pre-obfuscated by older consent SDKs; kept by "* extends CONSENT_INFORMATION".
+    "CONSENT_STATUS_INFORMATION": "* extends CONSENT_INFORMATION",
+}
+
+
+def parse_registry():
+    with open(REGISTRY, encoding="utf-8") as handle:
+        return dict(CONSTANT_RE.findall(handle.read()))
+
+
+def resolve(text, constants, used):
+    def substitute(match):
+        name = match.group(0)
+        if name not in constants:
+            sys.exit("unknown ReflectionTargets constant " + name)
+        used.add(name)
+        return constants[name]
+    return IDENTIFIER_RE.sub(substitute, text)
+
+
+def build(constants):
+    """Returns the rendered rules as (directive, target, members) and the constants they name."""
+    used = set()
+    rows = []
+    for directive, target, members in RULES:
+        parts = []
+        for member in members:
+            if isinstance(member, tuple):
+                modifiers, name, signature = member
+                parts.append("%s %s%s;" % (modifiers, resolve(name, constants, used), signature))
+            else:
+                parts.append(member)
+        rows.append((directive, resolve(target, constants, used), " ".join(parts)))
+    for name, target in COVERED_BY.items():
+        if name in constants and any(row_target == target for _, row_target, _ in RULES):
+            used.add(name)
+    return rows, used
+
+
+def render(rows):
+    lines = [BEGIN]
+    for directive, target, members in rows:
+        if members:
+            lines.append("%s %s { %s }" % (directive, target, members))
+        else:
+            lines.append("%s %s" % (directive, target))
+    lines.append(END)
+    return "\n".join(lines)
+
+
+def replace_block(text, block):
+    start = text.find(BEGIN)
+    end = text.find(END)
+    if start < 0 or end < 0:
+        sys.exit("generated block markers missing in " + PROGUARD)
+    return text[:start] + block + text[end + len(END):]
+
+
+def class_covered(name, rows):
+    for _, target, _ in rows:
+        if target == name:
+            return True
+        if target.endswith(".**") and name.startswith(target[:-2]):
+            return True
+    return False
+
+
+def member_patterns(rows):
+    patterns = []
+    for _, _, members in rows:
+        for name in MEMBER_RE.findall(members):
+            patterns.append(re.compile(re.escape(name).replace(r"\*", ".*") + "$"))
+    return patterns
+
+
+def check(constants, rows, used):
+    errors = []
+    for file_name in sorted(os.listdir(JAVA_DIR)):
+        if not file_name.endswith(".java") or file_name == "ReflectionTargets.java":
+            continue
+        with open(os.path.join(JAVA_DIR, file_name), encoding="utf-8") as handle:
+            for number, line in enumerate(handle, 1):
+                if LOOKUP_RE.search(line):
+                    errors.append("%s:%d: literal reflection target, use ReflectionTargets" % (file_name, number))
+
+    patterns = member_patterns(rows)
+    for name, value in sorted(constants.items()):
+        if name.startswith(FRAMEWORK_CONSTANT_PREFIX) or name in used:
+            continue
+        if "." in value:
+            if not value.startswith(FRAMEWORK_PREFIXES) and not class_covered(value, rows):
+                errors.append("no keep rule for class %s (%s)" % (name, value))
+        elif not any(pattern.match(value) for pattern in patterns):
+            errors.append("no keep rule for member %s (%s)" % (name, value))
+    return errors
+
+
+def main():
+    constants = parse_registry()
+    rows, used = build(constants)
+    with open(PROGUARD, encoding="utf-8") as handle:
+        current = handle.read()
+    updated = replace_block(current, render(rows))
+
+    if "--check" in sys.argv[1:]:
+        errors = check(constants, rows, used)
+        if updated != current:
+            errors.append("proguard-rules.pro is stale, run tools/gen_proguard_rules.py")
+        for error in errors:
+            print(error)
+        return 1 if errors else 0
+
+    if updated != current:
+        with open(PROGUARD, "w", encoding="utf-8") as handle:
+            handle.write(updated)
+        print("updated " + os.path.relpath(PROGUARD, ROOT))
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,16 @@
+#!/bin/sh
+# Compiles and runs the plain-JVM tests under tests/java. They cover bridge
+# classes without Android dependencies, so only javac/java are needed.
+set -e
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+
+javac -d "$out" \
+    "$root/appodeal/src/java/com/defold/appodeal/ConsentStateMachine.java" \
+    $(find "$root/tests/java" -name '*Test.java')
+
+for test in $(cd "$root/tests/java" && find . -name '*Test.java' | sed 's|^\./||; s|\.java$||; s|/|.|g'); do
+    java -cp "$out" "$test"
+done